@@ -0,0 +1,116 @@
+/**
+ * Put and lookup throughput of {@link ScalableBloomFilter} at each {@link ScalableBloomFilter.Rate}.
+ * <p>
+ * Lookups run against a filter already holding {@link #KEYS} keys, scaled over several layers by the small initial
+ * capacity, so a miss is tested against every layer. Hits cycle through the inserted keys, misses through keys
+ * never inserted.
+ * <p>
+ * The batch benchmarks test {@link #BATCH} keys per call, and report per key.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScalableBloomFilterBenchmark {
+    private static final int KEYS = 1 << 20;
+    private static final int KEY_MASK = KEYS - 1;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final double FPP = 0.01;
+    static final int BATCH = 1024;
+
+    @Param({"SLOW", "MEDIUM", "FAST"})
+    public ScalableBloomFilter.Rate rate;
+
+    private ScalableBloomFilter filled;
+    private ScalableBloomFilter empty;
+    private long next;
+    private long[] hits;
+    private long[] misses;
+    private long[] hits128;
+    private long[] misses128;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        filled = new ScalableBloomFilter(rate, INITIAL_CAPACITY, FPP);
+
+        for (long key = 0; key < KEYS; key++) {
+            filled.put(key);
+        }
+
+        SplittableRandom random = new SplittableRandom(1);
+
+        hits = random.longs(BATCH, 0, KEYS).toArray();
+        misses = random.longs(BATCH, KEYS, Long.MAX_VALUE).toArray();
+
+        long[] keys128 = random.longs(2 * KEYS).toArray();
+        filled.putAll128(keys128);
+
+        hits128 = Arrays.copyOf(keys128, 2 * BATCH);
+        misses128 = random.longs(2 * BATCH).toArray();
+    }
+
+    /**
+     * A fresh filter each iteration, so new key puts measure scaling without growing across the whole trial.
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+        if (empty != null) {
+            empty.close();
+        }
+
+        empty = new ScalableBloomFilter(rate, INITIAL_CAPACITY, FPP);
+        next = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        filled.close();
+        empty.close();
+    }
+
+    @Benchmark
+    public boolean putNew() {
+        return empty.put(next++);
+    }
+
+    @Benchmark
+    public boolean putDuplicate() {
+        return filled.put(next++ & KEY_MASK);
+    }
+
+    @Benchmark
+    public boolean mightContainHit() {
+        return filled.mightContain(next++ & KEY_MASK);
+    }
+
+    @Benchmark
+    public boolean mightContainMiss() {
+        return filled.mightContain(KEYS + (next++ & KEY_MASK));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long[] mightContainAllHit() {
+        return filled.mightContainAll(hits);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long[] mightContainAllMiss() {
+        return filled.mightContainAll(misses);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long[] mightContainAll128Hit() {
+        return filled.mightContainAll128(hits128);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long[] mightContainAll128Miss() {
+        return filled.mightContainAll128(misses128);
+    }
+}
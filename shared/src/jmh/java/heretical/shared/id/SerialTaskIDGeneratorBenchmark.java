@@ -0,0 +1,62 @@
+/**
+ * Throughput of {@link SerialTaskIDGenerator#next()}, from one thread and from several threads sharing a generator.
+ * <p>
+ * The generator allows {@code 2^sequenceBits} ids per millisecond, so past that rate both benchmarks mostly measure
+ * the wait for the next millisecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerialTaskIDGeneratorBenchmark {
+    static final int BATCH = 1024;
+
+    @State(Scope.Thread)
+    public static class ThreadGenerator {
+        public SerialTaskIDGenerator generator;
+        public final long[] batch = new long[BATCH];
+
+        @Setup
+        public void create() {
+            generator = new SerialTaskIDGenerator(1);
+        }
+    }
+
+    /**
+     * A generator shared by every benchmark thread, so threads contend on its state.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedGenerator {
+        public SerialTaskIDGenerator generator;
+
+        @Setup
+        public void create() {
+            generator = new SerialTaskIDGenerator(1);
+        }
+    }
+
+    @Benchmark
+    public long next(ThreadGenerator state) {
+        return state.generator.next();
+    }
+
+    @Benchmark
+    public long nextLong(ThreadGenerator state) {
+        return state.generator.nextLong();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long[] nextBatch(ThreadGenerator state) {
+        state.generator.next(state.batch, 0, BATCH);
+
+        return state.batch;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long nextContended(SharedGenerator state) {
+        return state.generator.next();
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Cost of reading the {@link DurationField} values from an instant, and of formatting and parsing them with the
+ * {@link DurationDateTimeFormatter} formatters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DurationFieldBenchmark {
+    // Tuesday, May 4, 2021 4:59:30.871 PM
+    private final Instant instant = Instant.ofEpochMilli(1620147570871L);
+
+    private String sixth;
+    private String sixthDuration;
+    private String twelfth;
+
+    @Setup
+    public void format() {
+        sixth = DurationDateTimeFormatter.SIXTH_FORMATTER.format(instant);
+        sixthDuration = DurationDateTimeFormatter.SIXTH_DURATION_FORMATTER.format(instant);
+        twelfth = DurationDateTimeFormatter.TWELFTH_FORMATTER.format(instant);
+    }
+
+    @Benchmark
+    public long getSixthOfDay() {
+        return DurationField.SIXTH_OF_DAY.getFrom(instant);
+    }
+
+    @Benchmark
+    public long getTwelfthOfDay() {
+        return DurationField.TWELFTH_OF_DAY.getFrom(instant);
+    }
+
+    @Benchmark
+    public String formatSixth() {
+        return DurationDateTimeFormatter.SIXTH_FORMATTER.format(instant);
+    }
+
+    @Benchmark
+    public String formatSixthDuration() {
+        return DurationDateTimeFormatter.SIXTH_DURATION_FORMATTER.format(instant);
+    }
+
+    @Benchmark
+    public String formatTwelfth() {
+        return DurationDateTimeFormatter.TWELFTH_FORMATTER.format(instant);
+    }
+
+    @Benchmark
+    public TemporalAccessor parseSixth() {
+        return DurationDateTimeFormatter.SIXTH_FORMATTER.parse(sixth);
+    }
+
+    @Benchmark
+    public TemporalAccessor parseSixthDuration() {
+        return DurationDateTimeFormatter.SIXTH_DURATION_FORMATTER.parse(sixthDuration);
+    }
+
+    @Benchmark
+    public TemporalAccessor parseTwelfth() {
+        return DurationDateTimeFormatter.TWELFTH_FORMATTER.parse(twelfth);
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * A heap {@link BitArray} over an {@link AtomicLongArray}, bits are set with a compare-and-swap so no locking is
+ * required.
+ */
+class AtomicBitArray implements BitArray {
+    private static final int WRITE_BUFFER_WORDS = 8 * 1024;
+    private final AtomicLongArray data;
+    private final LongAdder bitCount = new LongAdder();
+
+    AtomicBitArray(long numBits) {
+        long words = (numBits + Long.SIZE - 1) / Long.SIZE;
+
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("bit array too large, num bits: " + numBits);
+        }
+
+        this.data = new AtomicLongArray((int) Math.max(1, words));
+    }
+
+    @Override
+    public boolean set(long bitIndex) {
+        int longIndex = (int) (bitIndex >>> 6);
+        long mask = 1L << bitIndex; // only cares about low 6 bits
+
+        long oldValue;
+        long newValue;
+        do {
+            oldValue = data.get(longIndex);
+            newValue = oldValue | mask;
+
+            if (oldValue == newValue) {
+                return false;
+            }
+        } while (!data.compareAndSet(longIndex, oldValue, newValue));
+
+        bitCount.increment();
+
+        return true;
+    }
+
+    @Override
+    public boolean get(long bitIndex) {
+        return (data.get((int) (bitIndex >>> 6)) & (1L << bitIndex)) != 0;
+    }
+
+    @Override
+    public long wordCount() {
+        return data.length();
+    }
+
+    @Override
+    public long getWord(long wordIndex) {
+        return data.get((int) wordIndex);
+    }
+
+    @Override
+    public void orWord(long wordIndex, long word) {
+        int longIndex = (int) wordIndex;
+
+        long oldValue;
+        long newValue;
+        do {
+            oldValue = data.get(longIndex);
+            newValue = oldValue | word;
+
+            if (oldValue == newValue) {
+                return;
+            }
+        } while (!data.compareAndSet(longIndex, oldValue, newValue));
+
+        bitCount.add(Long.bitCount(newValue & ~oldValue));
+    }
+
+    @Override
+    public long bitSize() {
+        return (long) data.length() * Long.SIZE;
+    }
+
+    @Override
+    public long bitCount() {
+        return bitCount.sum();
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_WORDS * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int i = 0; i < data.length(); i++) {
+            buffer.putLong(data.get(i));
+
+            if (!buffer.hasRemaining() || i == data.length() - 1) {
+                buffer.flip();
+
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+
+                buffer.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * A static binary fuse filter with 16 bit fingerprints, Graf and Lemire "Binary Fuse Filters: Fast and Smaller
+ * Than Xor Filters", 2022, for read mostly sets known up front, such as lookup tables.
+ * <p>
+ * A key is present if the xor of the fingerprints at its three positions equals its own fingerprint. The three
+ * positions fall in three adjacent segments of the table, so a lookup touches three nearby cache lines with no
+ * branching. The false positive probability is {@code 2^-16}, 0.0000153, at about 18 bits per key, where a bloom
+ * filter needs about 23 bits per key for the same probability.
+ * <p>
+ * All keys are given to {@link #build(long[])} or {@link #build(ByteBuffer[])}, the filter can not be changed
+ * afterwards, so it is only a {@link ReadOnlyMembershipFilter}.
+ * <p>
+ * This class is thread safe once built.
+ */
+public class BinaryFuseFilter implements ReadOnlyMembershipFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryFuseFilter.class);
+    private static final int ARITY = 3;
+    private static final int MAX_SEGMENT_LENGTH = 1 << 18;
+    private static final int MAX_ATTEMPTS = 100;
+    private final long seed;
+    private final int segmentLength;
+    private final int segmentLengthMask;
+    private final int segmentCountLength;
+    private final short[] fingerprints;
+
+    private BinaryFuseFilter(long seed, int segmentLength, int segmentCountLength, short[] fingerprints) {
+        this.seed = seed;
+        this.segmentLength = segmentLength;
+        this.segmentLengthMask = segmentLength - 1;
+        this.segmentCountLength = segmentCountLength;
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * @param keys the set of keys, duplicates are ignored
+     */
+    public static BinaryFuseFilter build(long[] keys) {
+        long[] hashes = new long[keys.length];
+
+        for (int i = 0; i < keys.length; i++) {
+            hashes[i] = Murmur3.hash1(keys[i]);
+        }
+
+        return buildHashed(hashes);
+    }
+
+    /**
+     * @param tuples the set of keys, duplicates are ignored
+     */
+    public static BinaryFuseFilter build(ByteBuffer[] tuples) {
+        long[] hash = new long[2];
+        long[] hashes = new long[tuples.length];
+
+        for (int i = 0; i < tuples.length; i++) {
+            Murmur3.hash128(tuples[i], hash, 0);
+            hashes[i] = hash[0];
+        }
+
+        return buildHashed(hashes);
+    }
+
+    private static BinaryFuseFilter buildHashed(long[] hashes) {
+        // duplicate keys can never be peeled
+        Arrays.sort(hashes);
+        int size = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (i == 0 || hashes[i] != hashes[i - 1]) {
+                hashes[size++] = hashes[i];
+            }
+        }
+
+        int segmentLength = size == 0 ? 4 : Math.min(MAX_SEGMENT_LENGTH, 1 << (int) Math.floor(Math.log(size) / Math.log(3.33) + 2.25));
+        double sizeFactor = size <= 1 ? 0 : Math.max(1.125, 0.875 + 0.25 * Math.log(1_000_000) / Math.log(size));
+        int capacity = (int) Math.round(size * sizeFactor);
+        int segmentCount = Math.max(1, (capacity + segmentLength - 1) / segmentLength - (ARITY - 1));
+        int arrayLength = (segmentCount + ARITY - 1) * segmentLength;
+
+        // the low two bits of a count hold the xor of which of its three positions each key has here
+        byte[] counts = new byte[arrayLength];
+        long[] xorHashes = new long[arrayLength];
+        int[] queue = new int[arrayLength];
+        long[] peeledHashes = new long[size];
+        byte[] peeledPositions = new byte[size];
+        int[] positions = new int[ARITY];
+        SplittableRandom random = new SplittableRandom(size);
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long seed = random.nextLong();
+            BinaryFuseFilter filter = new BinaryFuseFilter(seed, segmentLength, segmentCount * segmentLength, new short[arrayLength]);
+
+            Arrays.fill(counts, (byte) 0);
+            Arrays.fill(xorHashes, 0);
+
+            boolean overflow = false;
+            for (int i = 0; i < size; i++) {
+                long hash = filter.mix(hashes[i]);
+                filter.positions(hash, positions);
+
+                for (int j = 0; j < ARITY; j++) {
+                    int position = positions[j];
+                    counts[position] = (byte) ((counts[position] + 4) ^ j);
+                    xorHashes[position] ^= hash;
+                    // more than 63 keys at one position
+                    overflow |= (counts[position] & 0xFF) < 4;
+                }
+            }
+
+            if (overflow) {
+                continue;
+            }
+
+            int queueSize = 0;
+            for (int position = 0; position < arrayLength; position++) {
+                if ((counts[position] & 0xFF) >>> 2 == 1) {
+                    queue[queueSize++] = position;
+                }
+            }
+
+            int peeled = 0;
+            while (queueSize > 0) {
+                int position = queue[--queueSize];
+
+                if ((counts[position] & 0xFF) >>> 2 != 1) {
+                    continue;
+                }
+
+                long hash = xorHashes[position];
+                int found = counts[position] & 3;
+                peeledHashes[peeled] = hash;
+                peeledPositions[peeled++] = (byte) found;
+
+                filter.positions(hash, positions);
+
+                for (int j = 0; j < ARITY; j++) {
+                    int other = positions[j];
+                    counts[other] = (byte) ((counts[other] - 4) ^ j);
+                    xorHashes[other] ^= hash;
+
+                    if (j != found && (counts[other] & 0xFF) >>> 2 == 1) {
+                        queue[queueSize++] = other;
+                    }
+                }
+            }
+
+            if (peeled != size) {
+                LOG.debug("binary fuse filter construction failed, attempt: {}, keys: {}, peeled: {}", attempt + 1, size, peeled);
+                continue;
+            }
+
+            // assign in reverse peeling order, each key owns the position it was peeled from
+            short[] fingerprints = filter.fingerprints;
+            for (int i = size - 1; i >= 0; i--) {
+                long hash = peeledHashes[i];
+                int found = peeledPositions[i];
+                filter.positions(hash, positions);
+
+                int fingerprint = fingerprint(hash);
+                for (int j = 0; j < ARITY; j++) {
+                    if (j != found) {
+                        fingerprint ^= fingerprints[positions[j]];
+                    }
+                }
+
+                fingerprints[positions[found]] = (short) fingerprint;
+            }
+
+            return filter;
+        }
+
+        throw new IllegalStateException("unable to build binary fuse filter, keys: " + size + ", attempts: " + MAX_ATTEMPTS);
+    }
+
+    @Override
+    public boolean mightContain(ByteBuffer tuple) {
+        long[] hash = new long[2];
+        Murmur3.hash128(tuple, hash, 0);
+
+        return mightContainHashed(hash[0]);
+    }
+
+    @Override
+    public boolean mightContain(long key) {
+        return mightContainHashed(Murmur3.hash1(key));
+    }
+
+    private boolean mightContainHashed(long hash1) {
+        long hash = mix(hash1);
+        int position0 = (int) (Math.multiplyHigh(hash, segmentCountLength) + ((hash >> 63) & segmentCountLength));
+        int position1 = (position0 + segmentLength) ^ ((int) (hash >>> 18) & segmentLengthMask);
+        int position2 = (position0 + 2 * segmentLength) ^ ((int) hash & segmentLengthMask);
+
+        return (short) (fingerprint(hash) ^ fingerprints[position0] ^ fingerprints[position1] ^ fingerprints[position2]) == 0;
+    }
+
+    /**
+     * @return the bytes held by the fingerprint table
+     */
+    public long sizeInBytes() {
+        return (long) fingerprints.length * Short.BYTES;
+    }
+
+    private long mix(long hash1) {
+        return Murmur3.fmix64(hash1 + seed);
+    }
+
+    /**
+     * One position in each of three consecutive segments, the first segment chosen by the high bits of the hash.
+     */
+    private void positions(long hash, int[] positions) {
+        // the high 64 bits of the unsigned product
+        int position0 = (int) (Math.multiplyHigh(hash, segmentCountLength) + ((hash >> 63) & segmentCountLength));
+
+        positions[0] = position0;
+        positions[1] = (position0 + segmentLength) ^ ((int) (hash >>> 18) & segmentLengthMask);
+        positions[2] = (position0 + 2 * segmentLength) ^ ((int) hash & segmentLengthMask);
+    }
+
+    private static int fingerprint(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & 0xFFFF;
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", BinaryFuseFilter.class.getSimpleName() + "[", "]")
+                .add("segmentLength=" + segmentLength)
+                .add("arrayLength=" + fingerprints.length)
+                .toString();
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * The fixed size set of bits backing a single {@link BloomLayer}.
+ * <p>
+ * Implementations must allow {@link #set(long)} and {@link #get(long)} to be called concurrently, and must track
+ * the number of set bits so {@link #bitCount()} is cheap enough to call on every scaling test.
+ */
+interface BitArray extends Closeable {
+    /**
+     * @return true if the bit was not already set
+     */
+    boolean set(long bitIndex);
+
+    boolean get(long bitIndex);
+
+    long bitSize();
+
+    long bitCount();
+
+    long wordCount();
+
+    /**
+     * @return the 64 bits starting at bit {@code wordIndex * 64}
+     */
+    long getWord(long wordIndex);
+
+    /**
+     * Sets every bit set in {@code word} within the 64 bits starting at bit {@code wordIndex * 64}.
+     */
+    void orWord(long wordIndex, long word);
+
+    /**
+     * Writes the words of this array in little endian order. Bits set concurrently may or may not be written.
+     */
+    void writeTo(WritableByteChannel channel) throws IOException;
+
+    /**
+     * Releases any memory held outside the heap, the array must not be used afterwards.
+     */
+    @Override
+    default void close() {
+    }
+}
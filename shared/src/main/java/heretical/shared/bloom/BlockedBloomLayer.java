@@ -0,0 +1,131 @@
+/**
+ * A bloom layer where all the probes of a key land in a single 512 bit block, one 64 byte cache line, so a lookup
+ * costs roughly one cache miss however many hash functions there are, Putze et al. "Cache-, Hash- and
+ * Space-Efficient Bloom Filters", 2007.
+ * <p>
+ * The first half of the key hash selects the block, the second half the bits within it. As keys are not spread
+ * evenly over blocks, some blocks fill faster than the layer as a whole and the false positive probability is
+ * higher than a standard layer of the same size, see {@link ScalableBloomFilter.Layout#BLOCKED}.
+ * <p>
+ * Blocks are aligned to 64 bytes within the {@link BitArray}, the array itself may not be, so a block may
+ * occasionally straddle two cache lines.
+ */
+class BlockedBloomLayer extends BloomLayer {
+    static final int BLOCK_SHIFT = 9;
+    static final long BLOCK_BITS = 1L << BLOCK_SHIFT;
+    // an LCG multiplier, its top bits are the best mixed
+    private static final long MULTIPLIER = 0x5851F42D4C957F2DL;
+    private final long numBlocks;
+
+    static BlockedBloomLayer create(long expectedInsertions, double fpp, ScalableBloomFilter.Storage storage) {
+        if (expectedInsertions <= 0) {
+            expectedInsertions = 1;
+        }
+
+        long numBits = blockedNumOfBits(expectedInsertions, fpp);
+        int numHashFunctions = optimalNumOfHashFunctions(expectedInsertions, numBits);
+
+        return new BlockedBloomLayer(storage.allocate(numBits), numHashFunctions);
+    }
+
+    /**
+     * @return the optimal number of bits rounded up to whole blocks
+     */
+    static long blockedNumOfBits(long expectedInsertions, double fpp) {
+        long numBits = optimalNumOfBits(Math.max(1, expectedInsertions), fpp);
+
+        return Math.max(1, (numBits + BLOCK_BITS - 1) >>> BLOCK_SHIFT) << BLOCK_SHIFT;
+    }
+
+    /**
+     * The false positive probability of a blocked layer sized for {@code fpp} by {@link #create(long, double,
+     * ScalableBloomFilter.Storage)} once full. Block loads are Poisson distributed, and each block behaves as a small
+     * standard bloom filter holding its load.
+     */
+    static double blockedFpp(double fpp) {
+        double bitsPerKey = -Math.log(fpp) / (LOG_2 * LOG_2);
+        int numHashFunctions = Math.max(1, (int) Math.round(bitsPerKey * LOG_2));
+        double meanLoad = BLOCK_BITS / bitsPerKey;
+        double bitUnset = Math.log1p(-1.0 / BLOCK_BITS) * numHashFunctions;
+        int maxLoad = (int) (meanLoad + 10 * Math.sqrt(meanLoad) + 10);
+
+        double result = 0;
+        double logProbability = -meanLoad; // log of the poisson probability of a load of zero
+        for (int load = 0; load <= maxLoad; load++) {
+            if (load > 0) {
+                logProbability += Math.log(meanLoad / load);
+            }
+
+            result += Math.exp(logProbability) * Math.pow(-Math.expm1(bitUnset * load), numHashFunctions);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the standard layer false positive probability to size a blocked layer for, so it gives no worse
+     * than {@code fpp} once full
+     */
+    static double compensatedFpp(double fpp) {
+        if (blockedFpp(fpp) <= fpp) {
+            return fpp;
+        }
+
+        // bisect in log space, the penalty grows as the target shrinks, so the lower bound is generous
+        double low = Math.log(fpp) - 2 * Math.log(1 / fpp);
+        double high = Math.log(fpp);
+        for (int i = 0; i < 40; i++) {
+            double mid = (low + high) / 2;
+
+            if (blockedFpp(Math.exp(mid)) <= fpp) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+
+        return Math.exp(low);
+    }
+
+    /**
+     * @param bits a whole number of blocks
+     */
+    BlockedBloomLayer(BitArray bits, int numHashFunctions) {
+        super(bits, numHashFunctions);
+        this.numBlocks = bits.bitSize() >>> BLOCK_SHIFT;
+    }
+
+    @Override
+    boolean put(long hash1, long hash2) {
+        long blockStart = ((hash1 & Long.MAX_VALUE) % numBlocks) << BLOCK_SHIFT;
+        long step = Long.rotateLeft(hash1, 32) | 1;
+        boolean bitsChanged = false;
+        long combinedHash = hash2;
+        for (int i = 0; i < numHashFunctions; i++) {
+            bitsChanged |= bits.set(blockStart + (combinedHash >>> (Long.SIZE - BLOCK_SHIFT)));
+            combinedHash = combinedHash * MULTIPLIER + step;
+        }
+
+        return bitsChanged;
+    }
+
+    @Override
+    long firstProbe(long hash1, long hash2) {
+        return (((hash1 & Long.MAX_VALUE) % numBlocks) << BLOCK_SHIFT) + (hash2 >>> (Long.SIZE - BLOCK_SHIFT));
+    }
+
+    @Override
+    boolean mightContain(long hash1, long hash2) {
+        long blockStart = ((hash1 & Long.MAX_VALUE) % numBlocks) << BLOCK_SHIFT;
+        long step = Long.rotateLeft(hash1, 32) | 1;
+        long combinedHash = hash2;
+        for (int i = 0; i < numHashFunctions; i++) {
+            if (!bits.get(blockStart + (combinedHash >>> (Long.SIZE - BLOCK_SHIFT)))) {
+                return false;
+            }
+            combinedHash = combinedHash * MULTIPLIER + step;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * An optional hook for exporting {@link ScalableBloomFilter} activity to a metrics system, see
+ * {@link ScalableBloomFilter#setMetrics(BloomFilterMetrics)}.
+ * <p>
+ * Calls are made on the inserting thread, inline, so implementations should only update counters or histograms.
+ */
+public interface BloomFilterMetrics {
+    /**
+     * @param count the number of keys inserted by the call, more than one for a batch
+     * @param nanos the time taken by the call
+     */
+    default void onPut(int count, long nanos) {
+    }
+
+    /**
+     * @param count the number of keys tested by the call, more than one for a batch
+     * @param nanos the time taken by the call
+     */
+    default void onLookup(int count, long nanos) {
+    }
+
+    /**
+     * Called after a layer is added, the stats include the new layer. Useful to alert on memory growth before a
+     * budget is reached.
+     */
+    default void onScale(BloomFilterStats stats) {
+    }
+
+    /**
+     * Called once, when the next layer would exceed the memory budget, before the saturation policy applies.
+     */
+    default void onSaturated(BloomFilterStats stats) {
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * A point in time snapshot of the state of a {@link ScalableBloomFilter}, see {@link ScalableBloomFilter#stats()}, or
+ * of a {@link ConcurrentScalableBloomFilter}, see {@link ConcurrentScalableBloomFilter#stats()}.
+ * <p>
+ * Layers are indexed newest first, so layer zero is the head taking inserts. Bits set are read once per layer, so the
+ * fill ratio and false positive probability of a layer always agree.
+ * <p>
+ * Timings are only recorded while a {@link BloomFilterMetrics} hook is set, and are zero otherwise.
+ */
+public final class BloomFilterStats {
+    private final String name;
+    private final double falsePositiveProbability;
+    private final long insertCount;
+    private final long putCount;
+    private final long putNanos;
+    private final long lookupCount;
+    private final long lookupNanos;
+    private final long[] capacities;
+    private final long[] bitSizes;
+    private final long[] bitCounts;
+    private final double[] fpps;
+
+    BloomFilterStats(String name, double falsePositiveProbability, long insertCount, long putCount, long putNanos, long lookupCount, long lookupNanos, Collection<? extends BloomLayer> layers) {
+        this.name = name;
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.insertCount = insertCount;
+        this.putCount = putCount;
+        this.putNanos = putNanos;
+        this.lookupCount = lookupCount;
+        this.lookupNanos = lookupNanos;
+        this.capacities = new long[layers.size()];
+        this.bitSizes = new long[layers.size()];
+        this.bitCounts = new long[layers.size()];
+        this.fpps = new double[layers.size()];
+
+        int count = 0;
+        for (BloomLayer layer : layers) {
+            capacities[count] = layer.capacity();
+            bitSizes[count] = layer.bitSize();
+            bitCounts[count] = layer.bitCount();
+            fpps[count] = Math.pow((double) bitCounts[count] / bitSizes[count], layer.numHashFunctions());
+            count++;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the false positive probability the filter was created with
+     */
+    public double getFalsePositiveProbability() {
+        return falsePositiveProbability;
+    }
+
+    public long getInsertCount() {
+        return insertCount;
+    }
+
+    /**
+     * @return the number of keys passed to the put methods
+     */
+    public long getPutCount() {
+        return putCount;
+    }
+
+    public long getPutNanos() {
+        return putNanos;
+    }
+
+    /**
+     * @return the number of keys passed to the mightContain methods
+     */
+    public long getLookupCount() {
+        return lookupCount;
+    }
+
+    public long getLookupNanos() {
+        return lookupNanos;
+    }
+
+    public int getLayerCount() {
+        return capacities.length;
+    }
+
+    /**
+     * @see BloomLayer#capacity()
+     */
+    public long getLayerCapacity(int layer) {
+        return capacities[layer];
+    }
+
+    public long getLayerBitSize(int layer) {
+        return bitSizes[layer];
+    }
+
+    public long getLayerBitCount(int layer) {
+        return bitCounts[layer];
+    }
+
+    /**
+     * @return the fraction of bits set, a layer is full at one half
+     */
+    public double getLayerFillRatio(int layer) {
+        return (double) bitCounts[layer] / bitSizes[layer];
+    }
+
+    public double getLayerFpp(int layer) {
+        return fpps[layer];
+    }
+
+    /**
+     * @return the probability an absent key is reported present by at least one layer
+     */
+    public double getCompoundedFpp() {
+        double notFalsePositive = 1;
+
+        for (double fpp : fpps) {
+            notFalsePositive *= 1 - fpp;
+        }
+
+        return 1 - notFalsePositive;
+    }
+
+    /**
+     * @return the bytes held by the bits of every layer, on or off heap
+     */
+    public long getMemoryBytes() {
+        long result = 0;
+
+        for (long bitSize : bitSizes) {
+            result += bitSize / Byte.SIZE;
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", BloomFilterStats.class.getSimpleName() + "[", "]")
+                .add("name=" + name)
+                .add("layers=" + capacities.length)
+                .add("insertCount=" + insertCount)
+                .add("memoryBytes=" + getMemoryBytes())
+                .add("compoundedFpp=" + getCompoundedFpp())
+                .add("putCount=" + putCount)
+                .add("putNanos=" + putNanos)
+                .add("lookupCount=" + lookupCount)
+                .add("lookupNanos=" + lookupNanos)
+                .toString();
+    }
+}
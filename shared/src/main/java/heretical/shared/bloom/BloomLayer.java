@@ -0,0 +1,238 @@
+/**
+ * A single fixed capacity layer of a scalable bloom filter.
+ * <p>
+ * Sizing and probing follow the Guava {@link BloomFilter} MURMUR128_MITZ_64 strategy, so a layer has the same
+ * bits per key and false positive behavior as the Guava filters it replaces.
+ * <p>
+ * Keys are not hashed by the layer, the owning filter computes one 128 bit {@link Murmur3} hash per key and every
+ * layer derives its probe positions from the same two halves, so a lookup hashes the key once however many layers
+ * there are.
+ * <p>
+ * Bits are held by a {@link BitArray}, on or off heap depending on the {@link ScalableBloomFilter.Storage}, and are
+ * set with a compare-and-swap, so {@link #put(long, long)} and {@link #mightContain(long, long)} may be called from
+ * any number of threads without locking.
+ */
+class BloomLayer implements Closeable {
+    static final double LOG_2 = Math.log(2);
+
+    protected final BitArray bits;
+    protected final long bitSize;
+    protected final int numHashFunctions;
+
+    static BloomLayer create(long expectedInsertions, double fpp, ScalableBloomFilter.Storage storage) {
+        if (expectedInsertions <= 0) {
+            expectedInsertions = 1;
+        }
+
+        long numBits = optimalNumOfBits(expectedInsertions, fpp);
+        int numHashFunctions = optimalNumOfHashFunctions(expectedInsertions, numBits);
+
+        return new BloomLayer(storage.allocate(numBits), numHashFunctions);
+    }
+
+    static long optimalNumOfBits(long expectedInsertions, double fpp) {
+        if (fpp == 0) {
+            fpp = Double.MIN_VALUE;
+        }
+
+        return (long) (-expectedInsertions * Math.log(fpp) / (LOG_2 * LOG_2));
+    }
+
+    static int optimalNumOfHashFunctions(long expectedInsertions, long numBits) {
+        return Math.max(1, (int) Math.round((double) numBits / expectedInsertions * LOG_2));
+    }
+
+    BloomLayer(BitArray bits, int numHashFunctions) {
+        this.bits = bits;
+        this.bitSize = bits.bitSize();
+        this.numHashFunctions = numHashFunctions;
+    }
+
+    public long bitSize() {
+        return bitSize;
+    }
+
+    public int numHashFunctions() {
+        return numHashFunctions;
+    }
+
+    public long bitCount() {
+        return bits.bitCount();
+    }
+
+    /**
+     * @return the number of keys at which the layer is half full, the fill it is sized to reach at its expected
+     * insertions, derived from the layer shape so layers that were re-opened or merged report it too
+     */
+    public long capacity() {
+        return Math.round(bitSize * LOG_2 / numHashFunctions);
+    }
+
+    /**
+     * Hashes every tuple up front for the batch methods, the two halves of each hash are interleaved.
+     */
+    static long[] hash(ByteBuffer[] tuples) {
+        long[] hashes = new long[tuples.length * 2];
+
+        for (int i = 0; i < tuples.length; i++) {
+            Murmur3.hash128(tuples[i], hashes, 2 * i);
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Hashes every key up front for the batch methods, the two halves of each hash are interleaved.
+     */
+    static long[] hash(long[] keys) {
+        long[] hashes = new long[keys.length * 2];
+
+        for (int i = 0; i < keys.length; i++) {
+            hashes[2 * i] = Murmur3.hash1(keys[i]);
+            hashes[2 * i + 1] = Murmur3.hash2(keys[i]);
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Hashes every sixteen byte key up front for the batch methods, see
+     * {@link Murmur3#hash128(long, long, long[], int)}.
+     *
+     * @param keys two longs per key, the high half first
+     */
+    static long[] hash128(long[] keys) {
+        if ((keys.length & 1) != 0) {
+            throw new IllegalArgumentException("keys must hold two longs per key, got length: " + keys.length);
+        }
+
+        long[] hashes = new long[keys.length];
+
+        for (int i = 0; i < keys.length; i += 2) {
+            Murmur3.hash128(keys[i], keys[i + 1], hashes, i);
+        }
+
+        return hashes;
+    }
+
+    /**
+     * @return true if any bit changed, that is, the key was definitely not present before this call
+     */
+    boolean put(long hash1, long hash2) {
+        boolean bitsChanged = false;
+        long combinedHash = hash1;
+        for (int i = 0; i < numHashFunctions; i++) {
+            bitsChanged |= bits.set((combinedHash & Long.MAX_VALUE) % bitSize);
+            combinedHash += hash2;
+        }
+
+        return bitsChanged;
+    }
+
+    boolean mightContain(long hash1, long hash2) {
+        long combinedHash = hash1;
+        for (int i = 0; i < numHashFunctions; i++) {
+            if (!bits.get((combinedHash & Long.MAX_VALUE) % bitSize)) {
+                return false;
+            }
+            combinedHash += hash2;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the first bit {@link #mightContain(long, long)} tests for the given hash
+     */
+    long firstProbe(long hash1, long hash2) {
+        return (hash1 & Long.MAX_VALUE) % bitSize;
+    }
+
+    /**
+     * Tests a batch of hashed keys, setting bit {@code i} of the result for each key this layer might contain, keys
+     * already set in the result are skipped.
+     * <p>
+     * Keys are taken 64 at a time, one result word. The first probe of every key in the word is tested before any key
+     * is fully tested, the loads do not depend on each other so their cache misses overlap, and most absent keys are
+     * ruled out by that one probe. The few keys left are then tested in full, with their first word already cached.
+     *
+     * @param hashes the two halves of each hash interleaved, as from {@link #hash(long[])}
+     */
+    void mightContainAll(long[] hashes, int count, long[] result) {
+        for (int word = 0; word < result.length; word++) {
+            int base = word << 6;
+            int keys = Math.min(count - base, Long.SIZE);
+            long pending = ~result[word] & (keys == Long.SIZE ? -1L : (1L << keys) - 1);
+            long survivors = 0;
+
+            for (long remaining = pending; remaining != 0; remaining &= remaining - 1) {
+                int i = base + Long.numberOfTrailingZeros(remaining);
+
+                if (bits.get(firstProbe(hashes[2 * i], hashes[2 * i + 1]))) {
+                    survivors |= Long.lowestOneBit(remaining);
+                }
+            }
+
+            for (long remaining = survivors; remaining != 0; remaining &= remaining - 1) {
+                int i = base + Long.numberOfTrailingZeros(remaining);
+
+                if (mightContain(hashes[2 * i], hashes[2 * i + 1])) {
+                    result[word] |= Long.lowestOneBit(remaining);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets every bit set in the given layer, which must have the same size, hash functions and layout, so this
+     * layer then holds the keys of both.
+     */
+    void merge(BloomLayer other) {
+        if (other.getClass() != getClass() || other.bitSize != bitSize || other.numHashFunctions != numHashFunctions) {
+            throw new IllegalArgumentException("bloom layers are not compatible, bits: " + bitSize + ", other: " + other.bitSize + ", hash functions: " + numHashFunctions + ", other: " + other.numHashFunctions);
+        }
+
+        long words = bits.wordCount();
+        for (long i = 0; i < words; i++) {
+            long word = other.bits.getWord(i);
+
+            if (word != 0) {
+                bits.orWord(i, word);
+            }
+        }
+    }
+
+    /**
+     * @return true if the given layer has the same size, hash functions and layout, and the union of the two would
+     * be no more than half full, the fill a layer is sized to reach at its capacity
+     */
+    boolean canMerge(BloomLayer other) {
+        if (other.getClass() != getClass() || other.bitSize != bitSize || other.numHashFunctions != numHashFunctions) {
+            return false;
+        }
+
+        double unset = (1 - (double) bits.bitCount() / bitSize) * (1 - (double) other.bits.bitCount() / bitSize);
+
+        return unset >= 0.5;
+    }
+
+    /**
+     * @return the number of unique keys inserted, estimated from the fraction of bits set, Swamidass and Baldi 2007
+     */
+    public double estimatedInsertions() {
+        return -((double) bitSize / numHashFunctions) * Math.log1p(-(double) bits.bitCount() / bitSize);
+    }
+
+    public double expectedFpp() {
+        return Math.pow((double) bits.bitCount() / bitSize, numHashFunctions);
+    }
+
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        bits.writeTo(channel);
+    }
+
+    @Override
+    public void close() {
+        bits.close();
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * A {@link BitArray} held in native memory outside the heap, so very large layers add nothing to the GC heap.
+ * <p>
+ * A single {@link ByteBuffer} is limited to 2GB, so the bits are split across 1GB segments. Words are read and
+ * compare-and-swapped through a {@link VarHandle} view, giving the same lock free guarantees as
+ * {@link AtomicBitArray}.
+ * <p>
+ * The segments may also be memory mapped from a file written by {@link #writeTo(WritableByteChannel)}, so a layer
+ * can be re-opened without being read into memory.
+ * <p>
+ * The memory is freed, or unmapped, by {@link #close()}, rather than waiting on the GC to collect the buffers.
+ */
+class ByteBufferBitArray implements BitArray {
+    private static final Logger LOG = LoggerFactory.getLogger(ByteBufferBitArray.class);
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    static final int SEGMENT_SHIFT = 30; // 1GB segments
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("unable to free direct buffers explicitly, memory will be released by the garbage collector: {}", e.getMessage());
+        }
+
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private final int segmentShift;
+    private final long byteMask;
+    private final long bitSize;
+    private final LongAdder bitCount = new LongAdder();
+    private ByteBuffer[] segments;
+
+    static ByteBufferBitArray allocateDirect(long numBits) {
+        return allocateDirect(numBits, SEGMENT_SHIFT);
+    }
+
+    static ByteBufferBitArray allocateDirect(long numBits, int segmentShift) {
+        long segmentBytes = 1L << segmentShift;
+        long bytes = Math.max(1, (numBits + Long.SIZE - 1) / Long.SIZE) * Long.BYTES;
+        ByteBuffer[] segments = new ByteBuffer[(int) ((bytes + segmentBytes - 1) >>> segmentShift)];
+
+        try {
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = ByteBuffer.allocateDirect((int) Math.min(segmentBytes, bytes - ((long) i << segmentShift)));
+            }
+        } catch (OutOfMemoryError e) {
+            free(segments);
+            throw e;
+        }
+
+        return new ByteBufferBitArray(segments, segmentShift, bytes * Byte.SIZE);
+    }
+
+    /**
+     * @param segments     buffers of exactly {@code 1 << segmentShift} bytes, except the last
+     * @param segmentShift log2 of the segment size, must be at least 3
+     */
+    ByteBufferBitArray(ByteBuffer[] segments, int segmentShift, long bitSize) {
+        this(segments, segmentShift, bitSize, 0);
+    }
+
+    /**
+     * @param bitCount the number of bits already set in the given segments
+     */
+    ByteBufferBitArray(ByteBuffer[] segments, int segmentShift, long bitSize, long bitCount) {
+        this.segments = segments;
+        this.segmentShift = segmentShift;
+        this.byteMask = (1L << segmentShift) - 1;
+        this.bitSize = bitSize;
+        this.bitCount.add(bitCount);
+    }
+
+    /**
+     * Maps the given region of a file written by {@link #writeTo(WritableByteChannel)}. The mapping is private, changes
+     * are never written back to the file.
+     */
+    static ByteBufferBitArray map(FileChannel channel, long position, long bitSize, long bitCount) throws IOException {
+        long segmentBytes = 1L << SEGMENT_SHIFT;
+        long bytes = bitSize / Byte.SIZE;
+        ByteBuffer[] segments = new ByteBuffer[(int) ((bytes + segmentBytes - 1) >>> SEGMENT_SHIFT)];
+
+        try {
+            for (int i = 0; i < segments.length; i++) {
+                long offset = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.PRIVATE, position + offset, Math.min(segmentBytes, bytes - offset));
+            }
+        } catch (IOException | RuntimeException e) {
+            free(segments);
+            throw e;
+        }
+
+        return new ByteBufferBitArray(segments, SEGMENT_SHIFT, bitSize, bitCount);
+    }
+
+    @Override
+    public boolean set(long bitIndex) {
+        long byteIndex = (bitIndex >>> 6) << 3;
+        ByteBuffer segment = segments[(int) (byteIndex >>> segmentShift)];
+        int offset = (int) (byteIndex & byteMask);
+        long mask = 1L << bitIndex; // only cares about low 6 bits
+
+        long oldValue;
+        long newValue;
+        do {
+            oldValue = (long) LONGS.getVolatile(segment, offset);
+            newValue = oldValue | mask;
+
+            if (oldValue == newValue) {
+                return false;
+            }
+        } while (!LONGS.compareAndSet(segment, offset, oldValue, newValue));
+
+        bitCount.increment();
+
+        return true;
+    }
+
+    @Override
+    public boolean get(long bitIndex) {
+        long byteIndex = (bitIndex >>> 6) << 3;
+        ByteBuffer segment = segments[(int) (byteIndex >>> segmentShift)];
+
+        return ((long) LONGS.getVolatile(segment, (int) (byteIndex & byteMask)) & (1L << bitIndex)) != 0;
+    }
+
+    @Override
+    public long wordCount() {
+        return bitSize / Long.SIZE;
+    }
+
+    @Override
+    public long getWord(long wordIndex) {
+        long byteIndex = wordIndex << 3;
+
+        return (long) LONGS.getVolatile(segments[(int) (byteIndex >>> segmentShift)], (int) (byteIndex & byteMask));
+    }
+
+    @Override
+    public void orWord(long wordIndex, long word) {
+        long byteIndex = wordIndex << 3;
+        ByteBuffer segment = segments[(int) (byteIndex >>> segmentShift)];
+        int offset = (int) (byteIndex & byteMask);
+
+        long oldValue;
+        long newValue;
+        do {
+            oldValue = (long) LONGS.getVolatile(segment, offset);
+            newValue = oldValue | word;
+
+            if (oldValue == newValue) {
+                return;
+            }
+        } while (!LONGS.compareAndSet(segment, offset, oldValue, newValue));
+
+        bitCount.add(Long.bitCount(newValue & ~oldValue));
+    }
+
+    @Override
+    public long bitSize() {
+        return bitSize;
+    }
+
+    @Override
+    public long bitCount() {
+        return bitCount.sum();
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        for (ByteBuffer segment : segments) {
+            ByteBuffer buffer = segment.duplicate().clear();
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        ByteBuffer[] current = segments;
+
+        if (current == null) {
+            return;
+        }
+
+        // fail with an NPE rather than touch freed memory if used after close
+        segments = null;
+
+        free(current);
+    }
+
+    /**
+     * Frees, or unmaps, direct and mapped buffers now, rather than when collected.
+     */
+    static void free(ByteBuffer[] segments) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+
+        for (ByteBuffer segment : segments) {
+            if (segment == null || !segment.isDirect()) {
+                continue;
+            }
+
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, segment);
+            } catch (ReflectiveOperationException e) {
+                LOG.warn("unable to free direct buffer", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * A thread safe variant of {@link ScalableBloomFilter}.
+ * <p>
+ * Layers set their bits with a compare-and-swap on atomic word arrays, so {@link #put(ByteBuffer)} and
+ * {@link #mightContain(ByteBuffer)} never block. The layers are held in an immutable array that is replaced, and
+ * safely published through a volatile write, when a new layer is added. Only adding a layer takes a lock.
+ * <p>
+ * Scaling follows {@link ScalableBloomFilter#putScaled(ByteBuffer)}, new layers are added at the front with a
+ * capacity of {@code initialCapacity * rate^n} and a false positive probability of
+ * {@code falsePositiveProbability * errorProbabilityRatio^n}. The scaling test is run on roughly one in
+ * {@link ScalableBloomFilter#INSERT_TEST_RATE} inserts, sampled per thread, instead of off a shared counter.
+ * <p>
+ * Like {@link ScalableBloomFilter}, each key is hashed once and every layer probes from that hash.
+ * <p>
+ * Note two threads inserting the same key at the same time may both be told the key is new, as each may be the
+ * first to set a different one of its bits.
+ */
+public class ConcurrentScalableBloomFilter implements MembershipFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrentScalableBloomFilter.class);
+    private final String name;
+    private final ScalableBloomFilter.Rate growthRate;
+    private final float errorProbabilityRatio;
+    private final long initialCapacity;
+    private final double falsePositiveProbability;
+    private final ScalableBloomFilter.Storage storage;
+    private final LongAdder insertCount = new LongAdder();
+    private final Object scaleLock = new Object();
+    // newest layer first, never modified once published
+    private volatile BloomLayer[] bloomFilters;
+
+    public ConcurrentScalableBloomFilter(ScalableBloomFilter.Rate growthRate, int initialCapacity, double falsePositiveProbability) {
+        this(growthRate, ScalableBloomFilter.ERROR_PROBABILITY_RATIO, initialCapacity, falsePositiveProbability);
+    }
+
+    public ConcurrentScalableBloomFilter(ScalableBloomFilter.Rate growthRate, float errorProbabilityRatio, long initialCapacity, double falsePositiveProbability) {
+        this(null, growthRate, errorProbabilityRatio, initialCapacity, falsePositiveProbability);
+    }
+
+    public ConcurrentScalableBloomFilter(String name, ScalableBloomFilter.Rate growthRate, float errorProbabilityRatio, long initialCapacity, double falsePositiveProbability) {
+        this(name, growthRate, errorProbabilityRatio, initialCapacity, falsePositiveProbability, ScalableBloomFilter.Storage.HEAP);
+    }
+
+    public ConcurrentScalableBloomFilter(String name, ScalableBloomFilter.Rate growthRate, float errorProbabilityRatio, long initialCapacity, double falsePositiveProbability, ScalableBloomFilter.Storage storage) {
+        this.name = Objects.requireNonNullElse(name, "default");
+        this.growthRate = growthRate;
+        this.errorProbabilityRatio = errorProbabilityRatio;
+        this.initialCapacity = initialCapacity;
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.storage = storage;
+
+        this.bloomFilters = new BloomLayer[]{getBloomFilter(0)};
+    }
+
+    public long getInsertCount() {
+        return insertCount.sum();
+    }
+
+    public int size() {
+        return bloomFilters.length;
+    }
+
+    /**
+     * @param tuple the key to insert
+     * @return true if the key might have already been inserted
+     */
+    @Override
+    public boolean put(ByteBuffer tuple) {
+        long[] hash = new long[2];
+        Murmur3.hash128(tuple, hash, 0);
+
+        return putHashed(hash[0], hash[1]);
+    }
+
+    /**
+     * @see ScalableBloomFilter#put(long)
+     */
+    @Override
+    public boolean put(long key) {
+        return putHashed(Murmur3.hash1(key), Murmur3.hash2(key));
+    }
+
+    @Override
+    public boolean put(int key) {
+        return put((long) key);
+    }
+
+    boolean putHashed(long hash1, long hash2) {
+        BloomLayer[] current = bloomFilters;
+
+        if (ThreadLocalRandom.current().nextInt(ScalableBloomFilter.INSERT_TEST_RATE) == 0 && isExpected(current)) {
+            current = scale(current);
+        }
+
+        // the head layer is tested by the put itself, only the older layers need a lookup
+        for (int i = 1; i < current.length; i++) {
+            if (current[i].mightContain(hash1, hash2)) {
+                return true;
+            }
+        }
+
+        if (!current[0].put(hash1, hash2)) {
+            return true;
+        }
+
+        insertCount.increment();
+
+        return false;
+    }
+
+    @Override
+    public boolean mightContain(ByteBuffer tuple) {
+        long[] hash = new long[2];
+        Murmur3.hash128(tuple, hash, 0);
+
+        return mightContainHashed(hash[0], hash[1]);
+    }
+
+    @Override
+    public boolean mightContain(long key) {
+        return mightContainHashed(Murmur3.hash1(key), Murmur3.hash2(key));
+    }
+
+    @Override
+    public boolean mightContain(int key) {
+        return mightContain((long) key);
+    }
+
+    boolean mightContainHashed(long hash1, long hash2) {
+        for (BloomLayer bloomFilter : bloomFilters) {
+            if (bloomFilter.mightContain(hash1, hash2)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Safe to poll from any thread, the layers are read from one published array. Put and lookup counts and timings
+     * are not tracked, so are zero, as shared counters would contend on every call.
+     *
+     * @return a snapshot of the layers and insert count of this filter
+     */
+    public BloomFilterStats stats() {
+        return new BloomFilterStats(name, falsePositiveProbability, insertCount.sum(), 0, 0, 0, 0, Arrays.asList(bloomFilters));
+    }
+
+    public double[] expectedFpp() {
+        BloomLayer[] current = bloomFilters;
+        double[] result = new double[current.length];
+
+        for (int i = 0; i < current.length; i++) {
+            result[i] = current[i].expectedFpp();
+        }
+
+        return result;
+    }
+
+    protected boolean isExpected(BloomLayer[] current) {
+        return current[0].expectedFpp() > getScaledFPP(current.length - 1);
+    }
+
+    /**
+     * Adds a new head layer unless another thread already replaced the given layers, in which case the
+     * winning layers are returned.
+     */
+    private BloomLayer[] scale(BloomLayer[] expected) {
+        synchronized (scaleLock) {
+            BloomLayer[] current = bloomFilters;
+
+            if (current != expected) {
+                return current;
+            }
+
+            BloomLayer[] scaled = new BloomLayer[current.length + 1];
+            scaled[0] = getBloomFilter(current.length);
+            System.arraycopy(current, 0, scaled, 1, current.length);
+
+            bloomFilters = scaled;
+
+            return scaled;
+        }
+    }
+
+    private BloomLayer getBloomFilter(int size) {
+        double scaledCapacity = getScaledCapacity(size);
+        double scaledFPP = getScaledFPP(size);
+
+        LOG.info("creating concurrent bloom filter: {}, num: {}, with scaledCapacity: {}, scaledFalsePositiveProbability: {}", name, size + 1, scaledCapacity, scaledFPP);
+        LogUtil.logMemory(LOG, "memory before bloom scaling");
+
+        try {
+            return BloomLayer.create((long) scaledCapacity, scaledFPP, storage);
+        } finally {
+            LogUtil.logMemory(LOG, "memory after bloom scaling");
+        }
+    }
+
+    private double getScaledCapacity(int size) {
+        return initialCapacity * Math.pow(growthRate.rate, size);
+    }
+
+    private double getScaledFPP(int size) {
+        return falsePositiveProbability * Math.pow(errorProbabilityRatio, size);
+    }
+
+    /**
+     * Releases the layers, required to free the memory held by {@link ScalableBloomFilter.Storage#DIRECT} layers.
+     * The filter must not be used afterwards, nor while close is being called.
+     */
+    @Override
+    public void close() {
+        synchronized (scaleLock) {
+            for (BloomLayer bloomFilter : bloomFilters) {
+                bloomFilter.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", ConcurrentScalableBloomFilter.class.getSimpleName() + "[", "]")
+                .add("name=" + name)
+                .add("growthRate=" + growthRate)
+                .add("errorProbabilityRatio=" + errorProbabilityRatio)
+                .add("initialCapacity=" + initialCapacity)
+                .add("falsePositiveProbability=" + falsePositiveProbability)
+                .add("storage=" + storage)
+                .toString();
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * A cuckoo filter, Fan et al. "Cuckoo Filter: Practically Better Than Bloom", 2014, for dynamic sets where keys
+ * must also be removed.
+ * <p>
+ * Each key stores a 16 bit fingerprint in one of two candidate buckets of four slots, so a lookup reads at most two
+ * buckets. A bucket is packed into a single long, and all four slots are compared at once. The false positive
+ * probability is about {@code 8 / 2^16}, 0.00012, when full, and falls with the load.
+ * <p>
+ * Unlike a bloom filter the capacity is fixed, the table holds up to about 95% of its slots. Once an insert can not
+ * find room, the displaced fingerprint is held aside and further inserts fail with an {@link IllegalStateException}
+ * until keys are removed.
+ * <p>
+ * {@link #remove(long)} must only be called for keys that were inserted, and were not reported as already present
+ * when inserted, otherwise it may remove the fingerprint of another key.
+ * <p>
+ * This class is not thread safe.
+ */
+public class CuckooFilter implements MembershipFilter {
+    private static final int SLOTS = 4;
+    private static final int FINGERPRINT_BITS = 16;
+    private static final long FINGERPRINT_MASK = (1L << FINGERPRINT_BITS) - 1;
+    private static final long LANES = 0x0001_0001_0001_0001L;
+    private static final long LANE_HIGH_BITS = 0x8000_8000_8000_8000L;
+    private static final double MAX_LOAD = 0.95;
+    static final int MAX_KICKS = 500;
+    private final long[] buckets;
+    private final int bucketMask;
+    private final SplittableRandom random;
+    // scratch space for the two halves of a key hash
+    private final long[] hash = new long[2];
+    private long count = 0;
+    private int victimIndex;
+    private long victimFingerprint = 0;
+
+    /**
+     * @param expectedInsertions the number of keys to hold, the table is sized so they fill at most 95% of it
+     */
+    public CuckooFilter(long expectedInsertions) {
+        this(expectedInsertions, new SplittableRandom());
+    }
+
+    /**
+     * @param random the source of the slots evicted when both buckets of a key are full
+     */
+    public CuckooFilter(long expectedInsertions, SplittableRandom random) {
+        long numBuckets = Math.max(1, (long) Math.ceil(expectedInsertions / (SLOTS * MAX_LOAD)));
+
+        if (numBuckets > 1 << 30) {
+            throw new IllegalArgumentException("cuckoo filter too large, expected insertions: " + expectedInsertions);
+        }
+
+        // a power of two, so the alternate bucket of a fingerprint is an xor away
+        this.buckets = new long[numBuckets == 1 ? 1 : Integer.highestOneBit((int) numBuckets - 1) << 1];
+        this.bucketMask = buckets.length - 1;
+        this.random = random;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return true while a displaced fingerprint is held aside, when puts fail until a key is removed and the
+     * fingerprint finds room
+     */
+    public boolean isFull() {
+        return victimFingerprint != 0;
+    }
+
+    public long capacity() {
+        return (long) buckets.length * SLOTS;
+    }
+
+    /**
+     * @throws IllegalStateException if the filter is full
+     */
+    @Override
+    public boolean put(ByteBuffer tuple) {
+        Murmur3.hash128(tuple, hash, 0);
+
+        return putHashed(hash[0], hash[1]);
+    }
+
+    /**
+     * @throws IllegalStateException if the filter is full
+     */
+    @Override
+    public boolean put(long key) {
+        return putHashed(Murmur3.hash1(key), Murmur3.hash2(key));
+    }
+
+    private boolean putHashed(long hash1, long hash2) {
+        long fingerprint = fingerprint(hash2);
+        int index = index(hash1);
+
+        if (contains(index, fingerprint)) {
+            return true;
+        }
+
+        if (victimFingerprint != 0) {
+            throw new IllegalStateException("cuckoo filter is full, count: " + count + ", capacity: " + capacity());
+        }
+
+        insert(index, fingerprint);
+        count++;
+
+        return false;
+    }
+
+    @Override
+    public boolean mightContain(ByteBuffer tuple) {
+        Murmur3.hash128(tuple, hash, 0);
+
+        return contains(index(hash[0]), fingerprint(hash[1]));
+    }
+
+    @Override
+    public boolean mightContain(long key) {
+        return contains(index(Murmur3.hash1(key)), fingerprint(Murmur3.hash2(key)));
+    }
+
+    /**
+     * @return true if a fingerprint of the key was found and removed
+     */
+    public boolean remove(ByteBuffer tuple) {
+        Murmur3.hash128(tuple, hash, 0);
+
+        return removeHashed(hash[0], hash[1]);
+    }
+
+    public boolean remove(long key) {
+        return removeHashed(Murmur3.hash1(key), Murmur3.hash2(key));
+    }
+
+    private boolean removeHashed(long hash1, long hash2) {
+        long fingerprint = fingerprint(hash2);
+        int index = index(hash1);
+
+        if (victimFingerprint == fingerprint && (victimIndex == index || victimIndex == alternate(index, fingerprint))) {
+            victimFingerprint = 0;
+            count--;
+
+            return true;
+        }
+
+        if (!clear(index, fingerprint) && !clear(alternate(index, fingerprint), fingerprint)) {
+            return false;
+        }
+
+        count--;
+
+        // there may now be room for the fingerprint held aside
+        if (victimFingerprint != 0) {
+            long victim = victimFingerprint;
+            victimFingerprint = 0;
+            insert(victimIndex, victim);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the false positive probability given the current load
+     */
+    public double expectedFpp() {
+        return 1 - Math.pow(1 - 1.0 / FINGERPRINT_MASK, 2.0 * SLOTS * count / capacity());
+    }
+
+    /**
+     * Places the fingerprint in either of its buckets, evicting and relocating others if both are full, or holds
+     * the last evicted fingerprint aside if no room is found.
+     */
+    private void insert(int index, long fingerprint) {
+        if (tryAdd(index, fingerprint) || tryAdd(alternate(index, fingerprint), fingerprint)) {
+            return;
+        }
+
+        if (random.nextBoolean()) {
+            index = alternate(index, fingerprint);
+        }
+
+        for (int kick = 0; kick < MAX_KICKS; kick++) {
+            int shift = random.nextInt(SLOTS) * FINGERPRINT_BITS;
+            long bucket = buckets[index];
+            long evicted = (bucket >>> shift) & FINGERPRINT_MASK;
+
+            buckets[index] = (bucket & ~(FINGERPRINT_MASK << shift)) | (fingerprint << shift);
+            fingerprint = evicted;
+            index = alternate(index, fingerprint);
+
+            if (tryAdd(index, fingerprint)) {
+                return;
+            }
+        }
+
+        victimIndex = index;
+        victimFingerprint = fingerprint;
+    }
+
+    private boolean tryAdd(int index, long fingerprint) {
+        long bucket = buckets[index];
+
+        for (int shift = 0; shift < Long.SIZE; shift += FINGERPRINT_BITS) {
+            if (((bucket >>> shift) & FINGERPRINT_MASK) == 0) {
+                buckets[index] = bucket | (fingerprint << shift);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean clear(int index, long fingerprint) {
+        long bucket = buckets[index];
+
+        for (int shift = 0; shift < Long.SIZE; shift += FINGERPRINT_BITS) {
+            if (((bucket >>> shift) & FINGERPRINT_MASK) == fingerprint) {
+                buckets[index] = bucket & ~(FINGERPRINT_MASK << shift);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean contains(int index, long fingerprint) {
+        int alternate = alternate(index, fingerprint);
+
+        return hasLane(buckets[index], fingerprint) || hasLane(buckets[alternate], fingerprint)
+                || (victimFingerprint == fingerprint && (victimIndex == index || victimIndex == alternate));
+    }
+
+    /**
+     * @return true if any of the four 16 bit lanes of the bucket equals the fingerprint
+     */
+    private static boolean hasLane(long bucket, long fingerprint) {
+        long difference = bucket ^ (fingerprint * LANES);
+
+        // a lane is zero where the fingerprint matched
+        return ((difference - LANES) & ~difference & LANE_HIGH_BITS) != 0;
+    }
+
+    private int index(long hash1) {
+        return (int) hash1 & bucketMask;
+    }
+
+    /**
+     * The other bucket of a fingerprint, from either one, partial-key cuckoo hashing.
+     */
+    private int alternate(int index, long fingerprint) {
+        return (index ^ (int) Murmur3.fmix64(fingerprint)) & bucketMask;
+    }
+
+    /**
+     * @return the top bits of the hash, never zero as zero marks an empty slot
+     */
+    private static long fingerprint(long hash2) {
+        long fingerprint = hash2 >>> (Long.SIZE - FINGERPRINT_BITS);
+
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", CuckooFilter.class.getSimpleName() + "[", "]")
+                .add("count=" + count)
+                .add("capacity=" + capacity())
+                .toString();
+    }
+}
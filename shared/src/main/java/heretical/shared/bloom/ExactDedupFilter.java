@@ -0,0 +1,131 @@
+/**
+ * An exact "new or duplicate" test, a {@link ScalableBloomFilter} in front of a {@link SpillableLongSet} of key
+ * fingerprints, for data where a false positive, silently dropping a new record, is not acceptable.
+ * <p>
+ * Every new key has its fingerprint added to the set. A key the bloom filter has never seen is known to be new
+ * without touching the set, so most new keys cost a bloom put and an in memory append. Only keys the bloom filter
+ * reports present are looked up in the set, which tells a duplicate from a false positive, so duplicates cost a set
+ * lookup, possibly against the spilled runs.
+ * <p>
+ * A long key is its own fingerprint, so long keys are exact. A {@link ByteBuffer} key is fingerprinted by 64 bits of
+ * its murmur3 hash, so two different buffers are confused with a probability of about {@code n^2 / 2^65} over
+ * {@code n} keys, one in 3,700 at 100 million keys.
+ * <p>
+ * This class is not thread safe.
+ */
+public class ExactDedupFilter implements MembershipFilter {
+    public static final int MAX_MEMORY_FINGERPRINTS = 4 * 1024 * 1024;
+    private final ScalableBloomFilter bloomFilter;
+    private final SpillableLongSet fingerprints;
+    private long falsePositiveCount = 0;
+    // scratch space for the two halves of a key hash, this class is not thread safe
+    private final long[] hash = new long[2];
+
+    public ExactDedupFilter(ScalableBloomFilter.Rate growthRate, int initialCapacity, double falsePositiveProbability) {
+        this(null, growthRate, ScalableBloomFilter.ERROR_PROBABILITY_RATIO, initialCapacity, falsePositiveProbability, ScalableBloomFilter.Storage.HEAP, MAX_MEMORY_FINGERPRINTS, Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * @param maxMemoryFingerprints the number of fingerprints held in memory before spilling, see
+     *                              {@link SpillableLongSet}
+     * @param spillDirectory        where fingerprints are spilled
+     */
+    public ExactDedupFilter(String name, ScalableBloomFilter.Rate growthRate, float errorProbabilityRatio, long initialCapacity, double falsePositiveProbability, ScalableBloomFilter.Storage storage, int maxMemoryFingerprints, Path spillDirectory) {
+        this.bloomFilter = new ScalableBloomFilter(name, growthRate, errorProbabilityRatio, initialCapacity, falsePositiveProbability, storage);
+        this.fingerprints = new SpillableLongSet(maxMemoryFingerprints, spillDirectory);
+    }
+
+    public long getInsertCount() {
+        return fingerprints.size();
+    }
+
+    /**
+     * @return the number of new keys the bloom filter reported present, each caught by the fingerprint set
+     */
+    public long getFalsePositiveCount() {
+        return falsePositiveCount;
+    }
+
+    /**
+     * @param tuple the key to insert
+     * @return true if the key was already inserted
+     */
+    @Override
+    public boolean put(ByteBuffer tuple) {
+        Murmur3.hash128(tuple, hash, 0);
+
+        return putHashed(hash[0], hash[1], hash[0]);
+    }
+
+    /**
+     * @param key the key to insert
+     * @return true if the key was already inserted
+     */
+    @Override
+    public boolean put(long key) {
+        return putHashed(Murmur3.hash1(key), Murmur3.hash2(key), key);
+    }
+
+    @Override
+    public boolean put(int key) {
+        return put((long) key);
+    }
+
+    private boolean putHashed(long hash1, long hash2, long fingerprint) {
+        // never seen by the bloom filter, so the fingerprint is not in the set either
+        if (!bloomFilter.putHashed(hash1, hash2)) {
+            fingerprints.addAbsent(fingerprint);
+
+            return false;
+        }
+
+        if (fingerprints.add(fingerprint)) {
+            falsePositiveCount++;
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return true only if the key was inserted, despite the name
+     */
+    @Override
+    public boolean mightContain(ByteBuffer tuple) {
+        Murmur3.hash128(tuple, hash, 0);
+
+        return bloomFilter.mightContainHashed(hash[0], hash[1]) && fingerprints.contains(hash[0]);
+    }
+
+    /**
+     * @return true only if the key was inserted, despite the name
+     */
+    @Override
+    public boolean mightContain(long key) {
+        return bloomFilter.mightContainHashed(Murmur3.hash1(key), Murmur3.hash2(key)) && fingerprints.contains(key);
+    }
+
+    @Override
+    public boolean mightContain(int key) {
+        return mightContain((long) key);
+    }
+
+    /**
+     * Releases the bloom filter and deletes any spilled fingerprints.
+     */
+    @Override
+    public void close() {
+        bloomFilter.close();
+        fingerprints.close();
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", ExactDedupFilter.class.getSimpleName() + "[", "]")
+                .add("bloomFilter=" + bloomFilter)
+                .add("fingerprints=" + fingerprints)
+                .add("falsePositiveCount=" + falsePositiveCount)
+                .toString();
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * An approximate set of keys that keys are inserted into, which may report a key as present that was never inserted,
+ * but never reports an inserted key as absent, unless the implementation says otherwise.
+ * <p>
+ * Keys are either {@link ByteBuffer} tuples or primitive longs, a long key is not equivalent to a buffer holding the
+ * same bytes.
+ * <p>
+ * Implementations are not thread safe unless they say so.
+ *
+ * @see ScalableBloomFilter
+ * @see CuckooFilter
+ * @see ReadOnlyMembershipFilter
+ */
+public interface MembershipFilter extends ReadOnlyMembershipFilter {
+    /**
+     * @param tuple the key to insert
+     * @return true if the key might have already been inserted
+     */
+    boolean put(ByteBuffer tuple);
+
+    /**
+     * @param key the key to insert
+     * @return true if the key might have already been inserted
+     */
+    boolean put(long key);
+
+    /**
+     * Equivalent to {@code put((long) key)}.
+     */
+    default boolean put(int key) {
+        return put((long) key);
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * A bloom layer where the bits are split into one equal slice per hash function, and each hash function only sets
+ * bits within its own slice, as described in the Scalable Bloom Filter paper.
+ * <p>
+ * Every key sets exactly one bit in each slice, so no two probes of a key overlap, and a layer sized for a fill
+ * ratio of one half gives a false positive probability of {@code 0.5^k}.
+ */
+class PartitionedBloomLayer extends BloomLayer {
+    private final long sliceBits;
+
+    /**
+     * @return a layer with {@code k = ceil(log2(1 / fpp))} slices, sized to be half full at the expected insertions
+     */
+    static PartitionedBloomLayer create(long expectedInsertions, double fpp, ScalableBloomFilter.Storage storage) {
+        if (expectedInsertions <= 0) {
+            expectedInsertions = 1;
+        }
+
+        int numSlices = Math.max(1, (int) Math.ceil(-Math.log(fpp) / LOG_2));
+        // each insert sets one bit per slice, so a slice is half full after n / ln(2) inserts
+        long sliceBits = (long) Math.ceil(expectedInsertions / LOG_2);
+
+        return new PartitionedBloomLayer(storage.allocate(sliceBits * numSlices), numSlices, sliceBits);
+    }
+
+    private PartitionedBloomLayer(BitArray bits, int numSlices, long sliceBits) {
+        super(bits, numSlices);
+        this.sliceBits = sliceBits;
+    }
+
+    long sliceBits() {
+        return sliceBits;
+    }
+
+    @Override
+    boolean put(long hash1, long hash2) {
+        boolean bitsChanged = false;
+        long combinedHash = hash1;
+        long offset = 0;
+        for (int i = 0; i < numHashFunctions; i++) {
+            bitsChanged |= bits.set(offset + (combinedHash & Long.MAX_VALUE) % sliceBits);
+            combinedHash += hash2;
+            offset += sliceBits;
+        }
+
+        return bitsChanged;
+    }
+
+    /**
+     * The first probe falls in the first slice.
+     */
+    @Override
+    long firstProbe(long hash1, long hash2) {
+        return (hash1 & Long.MAX_VALUE) % sliceBits;
+    }
+
+    @Override
+    boolean mightContain(long hash1, long hash2) {
+        long combinedHash = hash1;
+        long offset = 0;
+        for (int i = 0; i < numHashFunctions; i++) {
+            if (!bits.get(offset + (combinedHash & Long.MAX_VALUE) % sliceBits)) {
+                return false;
+            }
+            combinedHash += hash2;
+            offset += sliceBits;
+        }
+
+        return true;
+    }
+
+    /**
+     * Estimated from the overall fill ratio, as every key sets one bit per slice the slices fill at the same rate.
+     */
+    @Override
+    public double expectedFpp() {
+        return Math.pow((double) bits.bitCount() / (sliceBits * numHashFunctions), numHashFunctions);
+    }
+}
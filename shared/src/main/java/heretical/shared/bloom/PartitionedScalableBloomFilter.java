@@ -0,0 +1,218 @@
+/**
+ * A Scalable Bloom Filter as described in the original paper, Almeida et al. "Scalable Bloom Filters", 2007.
+ * <p>
+ * Unlike {@link ScalableBloomFilter}, each layer is partitioned, every hash function owns its own slice of the
+ * layer bits, see {@link PartitionedBloomLayer}.
+ * <p>
+ * Layer {@code i} has a capacity of {@code initialCapacity * rate^i} and a false positive probability of
+ * {@code P0 * r^i}, where {@code r} is the {@code errorProbabilityRatio}, the paper's tightening ratio, and
+ * {@code P0 = falsePositiveProbability * (1 - r)}. So the compounded false positive probability over all layers never
+ * exceeds {@code falsePositiveProbability}, where {@link ScalableBloomFilter} may approach
+ * {@code falsePositiveProbability / (1 - r)}, and so must be sized for a lower target to give the same guarantee.
+ * <p>
+ * A layer is full once it holds its capacity of unique keys, at which point half its bits are set.
+ * <p>
+ * This class is not thread safe.
+ */
+public class PartitionedScalableBloomFilter implements MembershipFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionedScalableBloomFilter.class);
+    private final String name;
+    private final ScalableBloomFilter.Rate growthRate;
+    private final float errorProbabilityRatio;
+    private final long initialCapacity;
+    private final double falsePositiveProbability;
+    private final ScalableBloomFilter.Storage storage;
+    private final LinkedList<PartitionedBloomLayer> bloomFilters = new LinkedList<>();
+    // scratch space for the two halves of a key hash
+    private final long[] hash = new long[2];
+    private long insertCount = 0;
+    private long headCapacity;
+    private long headInsertCount = 0;
+
+    public PartitionedScalableBloomFilter(ScalableBloomFilter.Rate growthRate, int initialCapacity, double falsePositiveProbability) {
+        this(growthRate, ScalableBloomFilter.ERROR_PROBABILITY_RATIO, initialCapacity, falsePositiveProbability);
+    }
+
+    public PartitionedScalableBloomFilter(ScalableBloomFilter.Rate growthRate, float errorProbabilityRatio, long initialCapacity, double falsePositiveProbability) {
+        this(null, growthRate, errorProbabilityRatio, initialCapacity, falsePositiveProbability);
+    }
+
+    public PartitionedScalableBloomFilter(String name, ScalableBloomFilter.Rate growthRate, float errorProbabilityRatio, long initialCapacity, double falsePositiveProbability) {
+        this(name, growthRate, errorProbabilityRatio, initialCapacity, falsePositiveProbability, ScalableBloomFilter.Storage.HEAP);
+    }
+
+    public PartitionedScalableBloomFilter(String name, ScalableBloomFilter.Rate growthRate, float errorProbabilityRatio, long initialCapacity, double falsePositiveProbability, ScalableBloomFilter.Storage storage) {
+        if (errorProbabilityRatio <= 0 || errorProbabilityRatio >= 1) {
+            throw new IllegalArgumentException("errorProbabilityRatio must be between 0 and 1, exclusive, got: " + errorProbabilityRatio);
+        }
+
+        this.name = Objects.requireNonNullElse(name, "default");
+        this.growthRate = growthRate;
+        this.errorProbabilityRatio = errorProbabilityRatio;
+        this.initialCapacity = initialCapacity;
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.storage = storage;
+
+        addBloomFilter();
+    }
+
+    public long getInsertCount() {
+        return insertCount;
+    }
+
+    public int size() {
+        return bloomFilters.size();
+    }
+
+    /**
+     * @param tuple the key to insert
+     * @return true if the key might have already been inserted
+     */
+    @Override
+    public boolean put(ByteBuffer tuple) {
+        Murmur3.hash128(tuple, hash, 0);
+
+        return putHashed(hash[0], hash[1]);
+    }
+
+    /**
+     * @see ScalableBloomFilter#put(long)
+     */
+    @Override
+    public boolean put(long key) {
+        return putHashed(Murmur3.hash1(key), Murmur3.hash2(key));
+    }
+
+    @Override
+    public boolean put(int key) {
+        return put((long) key);
+    }
+
+    private boolean putHashed(long hash1, long hash2) {
+        // insert at beginning since we are assuming older values are less likely
+        if (headInsertCount >= headCapacity) {
+            addBloomFilter();
+        }
+
+        // the head is tested by the put itself
+        Iterator<PartitionedBloomLayer> iterator = bloomFilters.iterator();
+        PartitionedBloomLayer head = iterator.next();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().mightContain(hash1, hash2)) {
+                return true;
+            }
+        }
+
+        if (!head.put(hash1, hash2)) {
+            return true;
+        }
+
+        headInsertCount++;
+        insertCount++;
+
+        return false;
+    }
+
+    @Override
+    public boolean mightContain(ByteBuffer tuple) {
+        Murmur3.hash128(tuple, hash, 0);
+
+        return mightContainHashed(hash[0], hash[1]);
+    }
+
+    @Override
+    public boolean mightContain(long key) {
+        return mightContainHashed(Murmur3.hash1(key), Murmur3.hash2(key));
+    }
+
+    @Override
+    public boolean mightContain(int key) {
+        return mightContain((long) key);
+    }
+
+    private boolean mightContainHashed(long hash1, long hash2) {
+        for (PartitionedBloomLayer bloomFilter : bloomFilters) {
+            if (bloomFilter.mightContain(hash1, hash2)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public double[] expectedFpp() {
+        double[] result = new double[bloomFilters.size()];
+
+        int count = 0;
+        for (PartitionedBloomLayer bloomFilter : bloomFilters) {
+            result[count++] = bloomFilter.expectedFpp();
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the probability any absent key is reported present by at least one layer
+     */
+    public double compoundedFpp() {
+        double notFalsePositive = 1;
+
+        for (PartitionedBloomLayer bloomFilter : bloomFilters) {
+            notFalsePositive *= 1 - bloomFilter.expectedFpp();
+        }
+
+        return 1 - notFalsePositive;
+    }
+
+    private void addBloomFilter() {
+        int size = bloomFilters.size();
+        long scaledCapacity = (long) getScaledCapacity(size);
+        double scaledFPP = getScaledFPP(size);
+
+        LOG.info("creating partitioned bloom filter: {}, num: {}, with scaledCapacity: {}, scaledFalsePositiveProbability: {}", name, size + 1, scaledCapacity, scaledFPP);
+        LogUtil.logMemory(LOG, "memory before bloom scaling");
+
+        try {
+            bloomFilters.addFirst(PartitionedBloomLayer.create(scaledCapacity, scaledFPP, storage));
+        } finally {
+            LogUtil.logMemory(LOG, "memory after bloom scaling");
+        }
+
+        headCapacity = Math.max(1, scaledCapacity);
+        headInsertCount = 0;
+    }
+
+    private double getScaledCapacity(int size) {
+        return initialCapacity * Math.pow(growthRate.rate, size);
+    }
+
+    private double getScaledFPP(int size) {
+        return falsePositiveProbability * (1 - errorProbabilityRatio) * Math.pow(errorProbabilityRatio, size);
+    }
+
+    /**
+     * Releases the layers, required to free the memory held by {@link ScalableBloomFilter.Storage#DIRECT} layers.
+     * The filter must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        for (PartitionedBloomLayer bloomFilter : bloomFilters) {
+            bloomFilter.close();
+        }
+
+        bloomFilters.clear();
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", PartitionedScalableBloomFilter.class.getSimpleName() + "[", "]")
+                .add("name=" + name)
+                .add("growthRate=" + growthRate)
+                .add("errorProbabilityRatio=" + errorProbabilityRatio)
+                .add("initialCapacity=" + initialCapacity)
+                .add("falsePositiveProbability=" + falsePositiveProbability)
+                .add("storage=" + storage)
+                .toString();
+    }
+}
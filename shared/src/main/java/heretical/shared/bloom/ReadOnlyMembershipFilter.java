@@ -0,0 +1,29 @@
+/**
+ * An approximate set of keys that can only be queried, which may report a key as present that was never inserted,
+ * but never reports an inserted key as absent, unless the implementation says otherwise.
+ * <p>
+ * Keys are either {@link ByteBuffer} tuples or primitive longs, a long key is not equivalent to a buffer holding the
+ * same bytes.
+ *
+ * @see MembershipFilter
+ * @see BinaryFuseFilter
+ */
+public interface ReadOnlyMembershipFilter extends Closeable {
+    boolean mightContain(ByteBuffer tuple);
+
+    boolean mightContain(long key);
+
+    /**
+     * Equivalent to {@code mightContain((long) key)}.
+     */
+    default boolean mightContain(int key) {
+        return mightContain((long) key);
+    }
+
+    /**
+     * Releases any memory held outside the heap, the filter must not be used afterwards.
+     */
+    @Override
+    default void close() {
+    }
+}
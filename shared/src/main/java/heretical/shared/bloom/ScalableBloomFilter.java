@@ -3,30 +3,92 @@
  * This is a hack on the Scalable Bloom Filter paper. It does not support partitioning for example.
  * <p>
  * That said, a Stable Bloom Filter would be more appropriate, if not a real Scalable one with better perf and memory.
+ * For unbounded streams see {@link StableBloomFilter}, its memory is fixed.
  * <p>
  * But this version is suitable for batch processing where we will only see a few million unique keys.
  * <p>
  * Update, are actually seeing 10's of millions of unique keys in a batch, if not 100's of million.
  * <p>
+ * At those sizes each layer is a multi-GB bit set, so layers may be held off heap with {@link Storage#DIRECT}. Off
+ * heap memory is only released by {@link #close()}.
+ * <p>
+ * Each key is hashed once, with a 128 bit murmur3, and every layer derives its probe positions from that one hash,
+ * so adding layers adds bit probes but not hashing.
+ * <p>
+ * A filter can be saved with {@link #writeTo(Path)} and memory mapped back with {@link #open(Path)}, so a restarted
+ * job does not need to replay every key.
+ * <p>
+ * Filters built in parallel with the same parameters can be combined with {@link #merge(ScalableBloomFilter)}.
+ * <p>
+ * {@link #stats()} may be polled for layer counts, fill, false positive probability and memory, and a
+ * {@link BloomFilterMetrics} hook may be set to also time puts and lookups and to be told as layers are added.
+ * <p>
+ * Guessing the initial capacity is avoided by {@link #sizedFor(HyperLogLog, Rate, double)}, which sizes the first
+ * layer from a {@link HyperLogLog} sketch of a sample or of a previous run.
+ * <p>
+ * A layer is allocated, and zeroed, inside the put that fills the previous one, which stalls that put for large
+ * layers. {@link #setPreallocator(Executor)} moves the allocation to a background thread, started as the head nears
+ * full, so the put only swaps in the ready layer.
+ * <p>
+ * By default a filter grows without bound. {@link #setMemoryBudget(long, SaturationPolicy)} caps the memory held by
+ * the layers, and chooses what happens once the next layer would not fit.
+ * <p>
+ * With {@link Layout#BLOCKED} every probe of a key lands in one cache line of each layer, trading a little memory
+ * for roughly one cache miss per layer on lookup.
+ * <p>
  * ╔═════════════════════╤════════╤════════════╤═════════════════════╤════════════╤════════════════════╤═════════╤════════════════════════════╗
  * ║ Type                │ Rate   │ Num Values │ Expected Insertions │ Target FPP │ False Positives    │ Greater │ Expected FPP               ║
  * ╠═════════════════════╪════════╪════════════╪═════════════════════╪════════════╪════════════════════╪═════════╪════════════════════════════╣
  */
 
- public class ScalableBloomFilter {
+ public class ScalableBloomFilter implements MembershipFilter {
     
     private static final Logger LOG = LoggerFactory.getLogger(ScalableBloomFilter.class);
     public static final float ERROR_PROBABILITY_RATIO = 0.5F;
     public static final float FALSE_POSITIVE_PROBABILITY = 0.001F;
     public static final int INSERT_TEST_RATE = 10;
+    // standard errors of headroom when sizing from a distinct count estimate
+    private static final double SIZING_DEVIATIONS = 3;
+    // the fraction of its target fill at which the head starts the next layer allocating in the background
+    private static final double PREALLOCATE_FILL = 0.9;
+    private static final int FILE_MAGIC = 0x53424631; // SBF1
+    private static final int FILE_VERSION = 2;
+    // magic, version, rate, layout, ratio, capacity, fpp, insert count, name length, layer count
+    private static final int FILE_HEADER_BYTES = 4 + 4 + 4 + 4 + 4 + 8 + 8 + 8 + 4 + 4;
+    // num hash functions, bit size, bit count
+    private static final int FILE_LAYER_BYTES = 4 + 8 + 8;
     private final String name;
     private final Rate growthRate;
     private final float errorProbabilityRatio;
     private final long initialCapacity;
     private final double falsePositiveProbability;
-    private final LinkedList<BloomFilter<ByteBuffer>> bloomFilters = new LinkedList<>();
+    private final Storage storage;
+    private final Layout layout;
+    private final LinkedList<BloomLayer> bloomFilters = new LinkedList<>();
     private long insertCount = 0;
+    // the growth step the head was created at, only advanced as layers are created, so merged and rotated layers do
+    // not grow the next layer
+    private int headLevel = -1;
+    // the target of the head layer, cached as a compensated target is costly to compute
+    private double headScaledFPP;
+    // the head fpp at which the next layer starts allocating, see PREALLOCATE_FILL
+    private double headPreallocateFPP;
+    // scratch space for the two halves of a key hash, this class is not thread safe
+    private final long[] hash = new long[2];
     private Function<ByteBuffer, Boolean> put = this::putSingle;
+    private LongPredicate putLong = this::putSingle;
+    private BloomFilterMetrics metrics;
+    private long putCount = 0;
+    private long putNanos = 0;
+    private long lookupCount = 0;
+    private long lookupNanos = 0;
+    private long memoryBudget = Long.MAX_VALUE;
+    private SaturationPolicy saturationPolicy = SaturationPolicy.STOP_GROWING;
+    private boolean saturated = false;
+    private Executor preallocator;
+    private CompletableFuture<BloomLayer> nextLayer;
+    // the level the next layer was allocated for
+    private int nextLayerLevel;
 
     public enum Rate {
         SLOW(Math.sqrt(2)), MEDIUM(2), FAST(4);
@@ -38,6 +100,130 @@
         }
     }
 
+    /**
+     * Where the bits of each layer are held.
+     */
+    public enum Storage {
+        /**
+         * On the heap, in a long array.
+         */
+        HEAP {
+            @Override
+            BitArray allocate(long numBits) {
+                return new AtomicBitArray(numBits);
+            }
+        },
+        /**
+         * In native memory outside the heap, freed by {@link ScalableBloomFilter#close()}.
+         */
+        DIRECT {
+            @Override
+            BitArray allocate(long numBits) {
+                return ByteBufferBitArray.allocateDirect(numBits);
+            }
+        };
+
+        abstract BitArray allocate(long numBits);
+    }
+
+    /**
+     * How the probes of a key are placed within each layer.
+     */
+    public enum Layout {
+        /**
+         * Probes are spread over the whole layer, as Guava does.
+         */
+        STANDARD {
+            @Override
+            BloomLayer create(long expectedInsertions, double fpp, Storage storage) {
+                return BloomLayer.create(expectedInsertions, fpp, storage);
+            }
+
+            @Override
+            BloomLayer wrap(BitArray bits, int numHashFunctions) {
+                return new BloomLayer(bits, numHashFunctions);
+            }
+
+            @Override
+            double compensatedFpp(double fpp) {
+                return fpp;
+            }
+
+            @Override
+            long numOfBits(long expectedInsertions, double fpp) {
+                return BloomLayer.optimalNumOfBits(Math.max(1, expectedInsertions), fpp);
+            }
+        },
+        /**
+         * Probes fall within one 64 byte block, see {@link BlockedBloomLayer}. Uneven block loads raise the false
+         * positive probability, so each layer is sized for a lower target to compensate, about 9% more memory at a
+         * target of 0.001, and more as the layer targets tighten.
+         */
+        BLOCKED {
+            @Override
+            BloomLayer create(long expectedInsertions, double fpp, Storage storage) {
+                return BlockedBloomLayer.create(expectedInsertions, fpp, storage);
+            }
+
+            @Override
+            BloomLayer wrap(BitArray bits, int numHashFunctions) {
+                return new BlockedBloomLayer(bits, numHashFunctions);
+            }
+
+            @Override
+            double compensatedFpp(double fpp) {
+                return BlockedBloomLayer.compensatedFpp(fpp);
+            }
+
+            @Override
+            long numOfBits(long expectedInsertions, double fpp) {
+                return BlockedBloomLayer.blockedNumOfBits(expectedInsertions, fpp);
+            }
+        };
+
+        abstract BloomLayer create(long expectedInsertions, double fpp, Storage storage);
+
+        abstract BloomLayer wrap(BitArray bits, int numHashFunctions);
+
+        /**
+         * @return the target to size a layer of this layout for, so it gives no worse than {@code fpp} once full
+         */
+        abstract double compensatedFpp(double fpp);
+
+        /**
+         * @return the size of the layer {@link #create(long, double, Storage)} would allocate
+         */
+        abstract long numOfBits(long expectedInsertions, double fpp);
+    }
+
+    /**
+     * What a filter does once the next layer would take it past its memory budget, see
+     * {@link #setMemoryBudget(long, SaturationPolicy)}.
+     */
+    public enum SaturationPolicy {
+        /**
+         * No more layers are added, the head keeps taking inserts, and the false positive probability rises past the
+         * target as it fills.
+         */
+        STOP_GROWING,
+        /**
+         * Layers stop growing, each new layer is the size of the head, and the oldest layers are dropped to make room
+         * for it, so memory stays fixed and the false positive probability stays near the head target.
+         * <p>
+         * As with a {@link StableBloomFilter}, keys held only by a dropped layer are forgotten, so mightContain may
+         * return false for a key inserted long ago.
+         * <p>
+         * The head is never dropped, so the budget must hold two layers the size of the head, otherwise the filter
+         * stops growing as with {@link #STOP_GROWING}.
+         */
+        STABLE,
+        /**
+         * Every put throws an {@link IllegalStateException}, before the key is inserted, a batch put stops at the key
+         * that did not fit with the keys before it inserted. Lookups still succeed.
+         */
+        FAIL_FAST
+    }
+
     public ScalableBloomFilter(Rate growthRate, int initialCapacity, double falsePositiveProbability) {
         this(growthRate, ERROR_PROBABILITY_RATIO, initialCapacity, falsePositiveProbability);
     }
@@ -47,13 +233,158 @@
     }
 
     public ScalableBloomFilter(String name, Rate growthRate, float errorProbabilityRatio, long initialCapacity, double falsePositiveProbability) {
+        this(name, growthRate, errorProbabilityRatio, initialCapacity, falsePositiveProbability, Storage.HEAP);
+    }
+
+    public ScalableBloomFilter(String name, Rate growthRate, float errorProbabilityRatio, long initialCapacity, double falsePositiveProbability, Storage storage) {
+        this(name, growthRate, errorProbabilityRatio, initialCapacity, falsePositiveProbability, storage, Layout.STANDARD);
+    }
+
+    public ScalableBloomFilter(String name, Rate growthRate, float errorProbabilityRatio, long initialCapacity, double falsePositiveProbability, Storage storage, Layout layout) {
+        this(name, growthRate, errorProbabilityRatio, initialCapacity, falsePositiveProbability, storage, layout, Collections.emptyList(), 0);
+    }
+
+    private ScalableBloomFilter(String name, Rate growthRate, float errorProbabilityRatio, long initialCapacity, double falsePositiveProbability, Storage storage, Layout layout, List<BloomLayer> layers, long insertCount) {
         this.name = Objects.requireNonNullElse(name, "default");
         this.growthRate = growthRate;
         this.errorProbabilityRatio = errorProbabilityRatio;
         this.initialCapacity = initialCapacity;
         this.falsePositiveProbability = falsePositiveProbability;
+        this.storage = storage;
+        this.layout = layout;
+        this.insertCount = insertCount;
+
+        if (layers.isEmpty()) {
+            this.bloomFilters.addLast(getBloomFilter());
+        } else {
+            this.bloomFilters.addAll(layers);
+            this.headLevel = levelOf(layers.get(0), layers.size() - 1);
+            setHeadScaledFPP(getScaledFPP(headLevel));
+        }
+
+        if (this.bloomFilters.size() > 1) {
+            this.put = this::putScaled;
+            this.putLong = this::putScaled;
+        }
+    }
+
+    /**
+     * @see #sizedFor(String, HyperLogLog, Rate, float, double, Storage, Layout)
+     */
+    public static ScalableBloomFilter sizedFor(HyperLogLog sketch, Rate growthRate, double falsePositiveProbability) {
+        return sizedFor(null, sketch, growthRate, ERROR_PROBABILITY_RATIO, falsePositiveProbability, Storage.HEAP, Layout.STANDARD);
+    }
+
+    /**
+     * Creates a filter with a first layer sized to hold the distinct keys counted by the given sketch, so a batch
+     * like the one sketched fits in one layer and never pays for probing more.
+     * <p>
+     * The capacity is the estimate plus three standard errors, so is rarely short. A sketch of a sample must be scaled
+     * up by the caller, only the distinct count of the sample is known here.
+     */
+    public static ScalableBloomFilter sizedFor(String name, HyperLogLog sketch, Rate growthRate, float errorProbabilityRatio, double falsePositiveProbability, Storage storage, Layout layout) {
+        long initialCapacity = Math.max(1, sketch.estimateUpperBound(SIZING_DEVIATIONS));
+
+        LOG.info("sizing bloom filter: {}, from estimate: {}, initialCapacity: {}", name, sketch.estimate(), initialCapacity);
+
+        return new ScalableBloomFilter(name, growthRate, errorProbabilityRatio, initialCapacity, falsePositiveProbability, storage, layout);
+    }
 
-        this.bloomFilters.addLast(getBloomFilter());
+    /**
+     * Memory maps a filter written by {@link #writeTo(Path)}, any new layers are held on the heap.
+     *
+     * @see #open(Path, Storage)
+     */
+    public static ScalableBloomFilter open(Path path) throws IOException {
+        return open(path, Storage.HEAP);
+    }
+
+    /**
+     * Memory maps a filter written by {@link #writeTo(Path)}.
+     * <p>
+     * The layers are not read into memory, pages are loaded on demand as they are probed. The mapping is private,
+     * keys inserted into the re-opened filter are never written back to the file. {@link #close()} unmaps the file.
+     * <p>
+     * Note a private mapping requires the file to be writable, even though it is never modified.
+     *
+     * @param storage where to hold any new layers added as the filter scales
+     */
+    public static ScalableBloomFilter open(Path path, Storage storage) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = read(channel, 0, 8);
+
+            if (header.getInt() != FILE_MAGIC) {
+                throw new IOException("not a bloom filter file: " + path);
+            }
+
+            int version = header.getInt();
+
+            if (version != 1 && version != FILE_VERSION) {
+                throw new IOException("unsupported bloom filter file version: " + version + ", in: " + path);
+            }
+
+            // version 1 predates layouts, and so has no layout field
+            header = read(channel, 0, FILE_HEADER_BYTES - 4 - (version == 1 ? 4 : 0));
+            header.position(8);
+
+            int rate = header.getInt();
+            int layout = version == 1 ? Layout.STANDARD.ordinal() : header.getInt();
+            float errorProbabilityRatio = header.getFloat();
+            long initialCapacity = header.getLong();
+            double falsePositiveProbability = header.getDouble();
+            long insertCount = header.getLong();
+            int nameLength = header.getInt();
+
+            if (rate < 0 || rate >= Rate.values().length || layout < 0 || layout >= Layout.values().length || nameLength < 0) {
+                throw new IOException("corrupt bloom filter file: " + path);
+            }
+
+            ByteBuffer nameAndCount = read(channel, header.capacity(), nameLength + 4);
+            byte[] name = new byte[nameLength];
+            nameAndCount.get(name);
+            int size = nameAndCount.getInt();
+
+            ByteBuffer layerHeaders = read(channel, header.capacity() + nameAndCount.capacity(), size * FILE_LAYER_BYTES);
+            long position = align(header.capacity() + nameAndCount.capacity() + layerHeaders.capacity());
+            List<BloomLayer> layers = new ArrayList<>(size);
+
+            try {
+                for (int i = 0; i < size; i++) {
+                    int numHashFunctions = layerHeaders.getInt();
+                    long bitSize = layerHeaders.getLong();
+                    long bitCount = layerHeaders.getLong();
+
+                    if (position + bitSize / Byte.SIZE > channel.size()) {
+                        throw new IOException("truncated bloom filter file: " + path);
+                    }
+
+                    layers.add(Layout.values()[layout].wrap(ByteBufferBitArray.map(channel, position, bitSize, bitCount), numHashFunctions));
+
+                    position += bitSize / Byte.SIZE;
+                }
+            } catch (IOException | RuntimeException e) {
+                layers.forEach(BloomLayer::close);
+                throw e;
+            }
+
+            return new ScalableBloomFilter(new String(name, StandardCharsets.UTF_8), Rate.values()[rate], errorProbabilityRatio, initialCapacity, falsePositiveProbability, storage, Layout.values()[layout], layers, insertCount);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("truncated bloom filter file");
+            }
+        }
+
+        return buffer.flip();
+    }
+
+    private static long align(long position) {
+        return (position + Long.BYTES - 1) & -Long.BYTES;
     }
 
     public long getInsertCount() {
@@ -64,31 +395,301 @@
         return bloomFilters.size();
     }
 
+    /**
+     * Sets a hook to be told of puts, lookups and new layers, or null to remove it. Calls are only timed while a hook
+     * is set.
+     */
+    public void setMetrics(BloomFilterMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Caps the memory held by the layers of this filter, the policy applies once the next layer would not fit.
+     * <p>
+     * The budget is checked as layers are added, layers copied in by {@link #merge(ScalableBloomFilter)} are not
+     * limited, but count against the budget when the filter next scales.
+     *
+     * @param maxBytes the most bytes the bits of every layer may take, on or off heap
+     * @throws IllegalArgumentException if the layers already take more than {@code maxBytes}
+     */
+    public void setMemoryBudget(long maxBytes, SaturationPolicy policy) {
+        if (maxBytes < memoryBytes()) {
+            throw new IllegalArgumentException("memory budget: " + maxBytes + ", is less than the memory already held: " + memoryBytes());
+        }
+
+        long headBytes = layerBytes(bloomFilters.getFirst().bitSize());
+
+        if (policy == SaturationPolicy.STABLE && maxBytes / 2 < headBytes) {
+            throw new IllegalArgumentException("memory budget: " + maxBytes + ", can not hold two layers the size of the head: " + headBytes + ", to rotate");
+        }
+
+        this.memoryBudget = maxBytes;
+        this.saturationPolicy = Objects.requireNonNull(policy, "policy");
+    }
+
+    /**
+     * Allocates each next layer on the given executor once the head is nearly full, rather than inside the put that
+     * fills the head, so that put only swaps in the ready layer. Null, the default, allocates in the put.
+     * <p>
+     * If the next layer is still allocating when the head fills, the put waits for it. The next layer is only
+     * started if it fits the memory budget, and is held in addition to the layers until it is swapped in.
+     */
+    public void setPreallocator(Executor executor) {
+        this.preallocator = executor;
+
+        if (executor == null) {
+            discardPreallocated();
+        }
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return true once a layer could not be added within the memory budget
+     */
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    private long memoryBytes() {
+        long result = 0;
+
+        for (BloomLayer bloomFilter : bloomFilters) {
+            result += layerBytes(bloomFilter.bitSize());
+        }
+
+        return result;
+    }
+
+    private static long layerBytes(long numBits) {
+        return (numBits + Long.SIZE - 1) / Long.SIZE * Long.BYTES;
+    }
+
+    /**
+     * Like every other method of this class, must be called from the thread using the filter, polling from a
+     * monitoring thread may fail or see torn counts while the filter scales. Use a
+     * {@link ConcurrentScalableBloomFilter} to poll from another thread.
+     *
+     * @return a snapshot of the layers and activity of this filter, cheap enough to poll
+     */
+    public BloomFilterStats stats() {
+        return new BloomFilterStats(name, falsePositiveProbability, insertCount, putCount, putNanos, lookupCount, lookupNanos, bloomFilters);
+    }
+
+    private void recordPut(int count, long start) {
+        long nanos = System.nanoTime() - start;
+        putNanos += nanos;
+        metrics.onPut(count, nanos);
+    }
+
+    private void recordLookup(int count, long start) {
+        long nanos = System.nanoTime() - start;
+        lookupNanos += nanos;
+        metrics.onLookup(count, nanos);
+    }
+
     /**
      * Accept byte array so we don't have to serialize the tuple if there is a miss
      *
      * @param tuple
      * @return
      */
+    @Override
     public boolean put(ByteBuffer tuple) {
-        // an attempt to prevent mightContain calls when we only have one filter to test
-        return put.apply(tuple);
+        putCount++;
+
+        if (metrics == null) {
+            // an attempt to prevent mightContain calls when we only have one filter to test
+            return put.apply(tuple);
+        }
+
+        long start = System.nanoTime();
+        boolean contained = put.apply(tuple);
+        recordPut(1, start);
+
+        return contained;
     }
 
     public boolean putScaled(ByteBuffer tuple) {
-        if (mightContain(tuple)) {
-            return true;
+        Murmur3.hash128(tuple, hash, 0);
+
+        return putHashed(hash[0], hash[1], null);
+    }
+
+    public boolean putSingle(ByteBuffer tuple) {
+        Murmur3.hash128(tuple, hash, 0);
+
+        return putSingleHashed(hash[0], hash[1]);
+    }
+
+    /**
+     * Inserts a primitive key, hashed directly from its value without allocation.
+     * <p>
+     * Note a long key is not equivalent to a {@link ByteBuffer} holding the same bytes.
+     *
+     * @param key the key to insert
+     * @return true if the key might have already been inserted
+     */
+    @Override
+    public boolean put(long key) {
+        putCount++;
+
+        if (metrics == null) {
+            return putLong.test(key);
         }
 
+        long start = System.nanoTime();
+        boolean contained = putLong.test(key);
+        recordPut(1, start);
+
+        return contained;
+    }
+
+    /**
+     * Inserts a primitive key, equivalent to {@code put((long) key)}.
+     */
+    @Override
+    public boolean put(int key) {
+        return put((long) key);
+    }
+
+    public boolean putScaled(long key) {
+        return putHashed(Murmur3.hash1(key), Murmur3.hash2(key), null);
+    }
+
+    public boolean putSingle(long key) {
+        return putSingleHashed(Murmur3.hash1(key), Murmur3.hash2(key));
+    }
+
+    /**
+     * Inserts a batch of keys, equivalent to calling {@link #put(ByteBuffer)} on each in order.
+     *
+     * @return a bitmap where bit {@code i} is set if {@code tuples[i]} might have already been inserted
+     * @see #putAll(long[])
+     */
+    public long[] putAll(ByteBuffer[] tuples) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        long[] result = putAllHashed(BloomLayer.hash(tuples), tuples.length);
+
+        if (metrics != null) {
+            recordPut(tuples.length, start);
+        }
+
+        return result;
+    }
+
+    /**
+     * Inserts a batch of keys, equivalent to calling {@link #put(long)} on each in order.
+     * <p>
+     * The whole batch is hashed first, then each of the older layers is probed for every key in turn, so only the
+     * head layer, which may change as keys are inserted, is probed key by key.
+     *
+     * @return a bitmap where bit {@code i} is set if {@code keys[i]} might have already been inserted
+     */
+    public long[] putAll(long[] keys) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        long[] result = putAllHashed(BloomLayer.hash(keys), keys.length);
+
+        if (metrics != null) {
+            recordPut(keys.length, start);
+        }
+
+        return result;
+    }
+
+    /**
+     * Inserts a batch of sixteen byte keys, such as UUIDs, equivalent to calling {@link #put(ByteBuffer)} with each
+     * key in a big endian buffer, in order.
+     *
+     * @param keys two longs per key, the high half first, as {@link UUID#getMostSignificantBits()} then
+     *             {@link UUID#getLeastSignificantBits()}
+     * @return a bitmap where bit {@code i} is set if key {@code i}, at {@code keys[2i]}, might have already been
+     * inserted
+     * @throws IllegalArgumentException if the keys are not in pairs
+     */
+    public long[] putAll128(long[] keys) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        long[] result = putAllHashed(BloomLayer.hash128(keys), keys.length / 2);
+
+        if (metrics != null) {
+            recordPut(keys.length / 2, start);
+        }
+
+        return result;
+    }
+
+    private long[] putAllHashed(long[] hashes, int count) {
+        putCount += count;
+
+        long[] result = new long[(count + Long.SIZE - 1) / Long.SIZE];
+
+        // only the head changes while inserting, so the older layers can be probed a layer at a time
+        BloomLayer batchHead = bloomFilters.getFirst();
+        Iterator<BloomLayer> iterator = bloomFilters.descendingIterator();
+
+        for (int layer = bloomFilters.size() - 1; layer > 0; layer--) {
+            iterator.next().mightContainAll(hashes, count, result);
+        }
+
+        for (int i = 0; i < count; i++) {
+            if ((result[i >>> 6] & (1L << i)) == 0 && putHashed(hashes[2 * i], hashes[2 * i + 1], batchHead)) {
+                result[i >>> 6] |= 1L << i;
+            }
+        }
+
+        return result;
+    }
+
+    private boolean putSingleHashed(long hash1, long hash2) {
         // insert at beginning since we are assuming older values are less likely
-        if ((insertCount % INSERT_TEST_RATE) == 0 && isExpected()) {
-            bloomFilters.addFirst(getBloomFilter());
+        if ((insertCount % INSERT_TEST_RATE) == 0) {
+            testScale();
+
+            // the key may be in the layer just pushed down, so test every layer
+            if (bloomFilters.size() > 1) {
+                return putHashed(hash1, hash2, null);
+            }
         }
 
-        boolean unique = bloomFilters.getFirst().put(tuple);
+        // did not contain, so mightContain would be false
+        if (bloomFilters.getFirst().put(hash1, hash2)) {
+            insertCount++;
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @param batchHead the head when the layers older than it were probed for the key, the key still needs a lookup in
+     *                  it and any newer layer, null to probe them all
+     */
+    private boolean putHashed(long hash1, long hash2, BloomLayer batchHead) {
+        if ((insertCount % INSERT_TEST_RATE) == 0) {
+            testScale();
+        }
+
+        // the head is tested by the put itself, so only the older layers not yet probed need a lookup, counted by
+        // identity as rotation may drop the oldest layers mid batch, if the batch head was dropped every layer is probed
+        Iterator<BloomLayer> iterator = bloomFilters.iterator();
+        BloomLayer head = iterator.next();
+
+        while (head != batchHead && iterator.hasNext()) {
+            BloomLayer layer = iterator.next();
 
-        if (!unique) {
-            LOG.warn("bloom filter bit set did not change on insertion");
+            if (layer.mightContain(hash1, hash2)) {
+                return true;
+            }
+
+            if (layer == batchHead) {
+                break;
+            }
+        }
+
+        if (!head.put(hash1, hash2)) {
             return true;
         }
 
@@ -97,74 +698,487 @@
         return false;
     }
 
-    public boolean putSingle(ByteBuffer tuple) {
-        // insert at beginning since we are assuming older values are less likely
-        if ((insertCount % INSERT_TEST_RATE) == 0 && isExpected()) {
+    /**
+     * Inserts a key already hashed by the caller, for filters composed of several, so the key is hashed once.
+     */
+    boolean putHashed(long hash1, long hash2) {
+        putCount++;
+
+        return bloomFilters.size() > 1 ? putHashed(hash1, hash2, null) : putSingleHashed(hash1, hash2);
+    }
+
+    /**
+     * Adds a layer once the head is full, and with a preallocator, starts the next layer allocating as the head nears
+     * full.
+     */
+    private void testScale() {
+        if (isExpected()) {
+            addBloomFilter();
+        } else if (preallocator != null && nextLayer == null && !saturated && bloomFilters.getFirst().expectedFpp() > headPreallocateFPP) {
+            preallocate();
+        }
+    }
+
+    private void preallocate() {
+        int level = headLevel + 1;
+        long nextBytes = layerBytes(layout.numOfBits((long) getScaledCapacity(level), getScaledFPP(level)));
+
+        nextLayerLevel = level;
+
+        // left to the put that fills the head, which applies the saturation policy
+        if (memoryBytes() + nextBytes > memoryBudget) {
+            nextLayer = CompletableFuture.completedFuture(null);
+            return;
+        }
+
+        try {
+            nextLayer = CompletableFuture.supplyAsync(() -> createBloomFilter(level), preallocator);
+        } catch (RejectedExecutionException e) {
+            LOG.warn("unable to allocate bloom filter: {}, in the background, will allocate when needed", name, e);
+            nextLayer = CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * @return the layer allocated in the background for the given level, or null if there is none
+     */
+    private BloomLayer takePreallocated(int level) {
+        CompletableFuture<BloomLayer> future = nextLayer;
+        nextLayer = null;
+
+        if (future == null) {
+            return null;
+        }
+
+        BloomLayer layer;
+
+        try {
+            // usually done, otherwise waiting is no slower than allocating here
+            layer = future.join();
+        } catch (CompletionException | CancellationException e) {
+            LOG.warn("unable to allocate bloom filter: {}, in the background, allocating now", name, e.getCause());
+            return null;
+        }
+
+        if (layer != null && nextLayerLevel != level) {
+            layer.close();
+            return null;
+        }
+
+        return layer;
+    }
+
+    private void discardPreallocated() {
+        if (nextLayer != null) {
+            nextLayer.thenAccept(layer -> {
+                if (layer != null) {
+                    layer.close();
+                }
+            });
+
+            nextLayer = null;
+        }
+    }
+
+    private void addBloomFilter() {
+        if (!saturated) {
+            int level = headLevel + 1;
+            long nextBytes = layerBytes(layout.numOfBits((long) getScaledCapacity(level), getScaledFPP(level)));
+
+            if (memoryBytes() + nextBytes > memoryBudget) {
+                saturate(nextBytes);
+            }
+        }
+
+        if (!saturated) {
             bloomFilters.addFirst(getBloomFilter());
-            put = this::putScaled;
+        } else if (saturationPolicy == SaturationPolicy.STABLE) {
+            if (!rotateBloomFilter()) {
+                return;
+            }
+        } else if (saturationPolicy == SaturationPolicy.FAIL_FAST) {
+            throw new IllegalStateException("bloom filter: " + name + ", is saturated, memory budget: " + memoryBudget + ", held: " + memoryBytes());
+        } else {
+            return;
         }
 
-        boolean unique = bloomFilters.getFirst().put(tuple);
+        put = this::putScaled;
+        putLong = this::putScaled;
 
-        // did not contain, so mightContain would be false
-        if (unique) {
-            insertCount++;
+        if (metrics != null) {
+            metrics.onScale(stats());
+        }
+    }
+
+    private void saturate(long nextBytes) {
+        saturated = true;
+
+        discardPreallocated();
+
+        LOG.warn("bloom filter: {}, is saturated, next layer bytes: {}, held: {}, memory budget: {}, policy: {}", name, nextBytes, memoryBytes(), memoryBudget, saturationPolicy);
+
+        if (saturationPolicy == SaturationPolicy.STOP_GROWING) {
+            // the head is never replaced, so stop testing it
+            headScaledFPP = Double.POSITIVE_INFINITY;
+        }
+
+        if (metrics != null) {
+            metrics.onSaturated(stats());
+        }
+    }
+
+    /**
+     * Drops the oldest layers until a layer shaped like the head fits the budget, then adds one. The head is never
+     * dropped, so if the budget can not hold two layers the size of the head, stops growing instead.
+     *
+     * @return true if a layer was added
+     */
+    private boolean rotateBloomFilter() {
+        BloomLayer head = bloomFilters.getFirst();
+        long headBytes = layerBytes(head.bitSize());
+
+        if (memoryBudget / 2 < headBytes) {
+            LOG.warn("bloom filter: {}, memory budget: {}, can not hold two layers the size of the head: {}, no longer growing", name, memoryBudget, headBytes);
+
+            // as with STOP_GROWING, the head is never replaced
+            headScaledFPP = Double.POSITIVE_INFINITY;
 
             return false;
         }
 
+        while (bloomFilters.size() > 1 && memoryBytes() + headBytes > memoryBudget) {
+            BloomLayer oldest = bloomFilters.removeLast();
+
+            LOG.info("dropping bloom filter: {}, num: {}, with bitSize: {}", name, bloomFilters.size() + 1, oldest.bitSize());
+
+            oldest.close();
+        }
+
+        bloomFilters.addFirst(layout.wrap(storage.allocate(head.bitSize()), head.numHashFunctions()));
+
         return true;
     }
 
     protected boolean isExpected() {
-        return bloomFilters.getFirst().expectedFpp() > getScaledFPP(bloomFilters.size() - 1);
+        return bloomFilters.getFirst().expectedFpp() > headScaledFPP;
     }
 
+    @Override
     public boolean mightContain(ByteBuffer tuple) {
-        for (BloomFilter<ByteBuffer> bloomFilter : bloomFilters) {
-            if (bloomFilter.mightContain(tuple))
+        lookupCount++;
+        long start = metrics == null ? 0 : System.nanoTime();
+
+        Murmur3.hash128(tuple, hash, 0);
+        boolean contained = mightContainHashed(hash[0], hash[1]);
+
+        if (metrics != null) {
+            recordLookup(1, start);
+        }
+
+        return contained;
+    }
+
+    @Override
+    public boolean mightContain(long key) {
+        lookupCount++;
+        long start = metrics == null ? 0 : System.nanoTime();
+
+        boolean contained = mightContainHashed(Murmur3.hash1(key), Murmur3.hash2(key));
+
+        if (metrics != null) {
+            recordLookup(1, start);
+        }
+
+        return contained;
+    }
+
+    boolean mightContainHashed(long hash1, long hash2) {
+        for (BloomLayer bloomFilter : bloomFilters) {
+            if (bloomFilter.mightContain(hash1, hash2))
                 return true;
         }
 
         return false;
     }
 
+    /**
+     * Equivalent to {@code mightContain((long) key)}.
+     */
+    @Override
+    public boolean mightContain(int key) {
+        return mightContain((long) key);
+    }
+
+    /**
+     * Tests a batch of keys, equivalent to calling {@link #mightContain(ByteBuffer)} on each.
+     *
+     * @return a bitmap where bit {@code i} is set if {@code tuples[i]} might be contained
+     * @see #mightContainAll(long[])
+     */
+    public long[] mightContainAll(ByteBuffer[] tuples) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        long[] result = mightContainAllHashed(BloomLayer.hash(tuples), tuples.length);
+
+        if (metrics != null) {
+            recordLookup(tuples.length, start);
+        }
+
+        return result;
+    }
+
+    /**
+     * Tests a batch of keys, equivalent to calling {@link #mightContain(long)} on each.
+     * <p>
+     * The whole batch is hashed first, then each layer is probed in turn for the keys not yet found, so the probes
+     * stay within one layer at a time, see {@link BloomLayer#mightContainAll(long[], int, long[])}.
+     *
+     * @return a bitmap where bit {@code i} is set if {@code keys[i]} might be contained
+     */
+    public long[] mightContainAll(long[] keys) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        long[] result = mightContainAllHashed(BloomLayer.hash(keys), keys.length);
+
+        if (metrics != null) {
+            recordLookup(keys.length, start);
+        }
+
+        return result;
+    }
+
+    /**
+     * Tests a batch of sixteen byte keys, such as UUIDs, equivalent to calling {@link #mightContain(ByteBuffer)} with
+     * each key in a big endian buffer.
+     *
+     * @param keys two longs per key, the high half first
+     * @return a bitmap where bit {@code i} is set if key {@code i}, at {@code keys[2i]}, might be contained
+     * @throws IllegalArgumentException if the keys are not in pairs
+     * @see #putAll128(long[])
+     */
+    public long[] mightContainAll128(long[] keys) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        long[] result = mightContainAllHashed(BloomLayer.hash128(keys), keys.length / 2);
+
+        if (metrics != null) {
+            recordLookup(keys.length / 2, start);
+        }
+
+        return result;
+    }
+
+    private long[] mightContainAllHashed(long[] hashes, int count) {
+        lookupCount += count;
+
+        long[] result = new long[(count + Long.SIZE - 1) / Long.SIZE];
+
+        for (BloomLayer bloomFilter : bloomFilters) {
+            bloomFilter.mightContainAll(hashes, count, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds every key held by the given filter to this filter, so filters may be merged pairwise, tree style, in any
+     * order.
+     * <p>
+     * Each layer of the given filter is OR-ed into a layer of this filter of the same size, when the union of the
+     * two is no more than half full, the fill a layer is sized to reach at its capacity. Otherwise, as when two full
+     * layers meet, the layer is copied in alongside the layers of this filter, so merging never pushes a layer past
+     * its target, at the cost of probing more layers. Copied layers do not count towards the growth of the next
+     * layer, which is sized one step past the head.
+     * <p>
+     * Both filters must have been created with the same rate, error probability ratio, initial capacity, false
+     * positive probability and layout, the storage may differ. The given filter is unchanged.
+     * <p>
+     * The merged insert count is estimated from the bits set in each layer, so keys OR-ed into the same layer from
+     * both filters are counted once, keys held in different layers may be counted twice.
+     *
+     * @throws IllegalArgumentException if the filters are not compatible
+     */
+    public void merge(ScalableBloomFilter other) {
+        if (other == this) {
+            return;
+        }
+
+        if (other.growthRate != growthRate || other.errorProbabilityRatio != errorProbabilityRatio || other.initialCapacity != initialCapacity
+                || other.falsePositiveProbability != falsePositiveProbability || other.layout != layout) {
+            throw new IllegalArgumentException("bloom filters are not compatible: " + this + ", other: " + other);
+        }
+
+        List<BloomLayer> copies = new ArrayList<>();
+
+        for (BloomLayer otherLayer : other.bloomFilters) {
+            BloomLayer target = null;
+
+            for (BloomLayer layer : bloomFilters) {
+                if (layer.canMerge(otherLayer)) {
+                    target = layer;
+                    break;
+                }
+            }
+
+            if (target == null) {
+                target = layout.wrap(storage.allocate(otherLayer.bitSize()), otherLayer.numHashFunctions());
+                copies.add(target);
+            }
+
+            target.merge(otherLayer);
+        }
+
+        // behind the head, which keeps taking inserts
+        bloomFilters.addAll(1, copies);
+
+        long estimatedInsertions = 0;
+        for (BloomLayer layer : bloomFilters) {
+            estimatedInsertions += Math.round(layer.estimatedInsertions());
+        }
+
+        // the estimate can drift either side of the exact bounds
+        insertCount = Math.min(insertCount + other.insertCount, Math.max(Math.max(insertCount, other.insertCount), estimatedInsertions));
+
+        if (bloomFilters.size() > 1) {
+            put = this::putScaled;
+            putLong = this::putScaled;
+        }
+    }
+
     public double[] expectedFpp() {
         double[] result = new double[bloomFilters.size()];
 
         int count = 0;
-        for (BloomFilter<ByteBuffer> bloomFilter : bloomFilters) {
+        for (BloomLayer bloomFilter : bloomFilters) {
             result[count++] = bloomFilter.expectedFpp();
         }
 
         return result;
     }
 
-    private BloomFilter<ByteBuffer> getBloomFilter() {
-        int size = bloomFilters.size();
-        double scaledCapacity = getScaledCapacity(size);
-        double scaledFPP = getScaledFPP(size);
+    /**
+     * @return the next layer, one growth step past the head
+     */
+    private BloomLayer getBloomFilter() {
+        int level = headLevel + 1;
+        BloomLayer layer = takePreallocated(level);
+
+        if (layer == null) {
+            layer = createBloomFilter(level);
+        }
+
+        setHeadScaledFPP(getScaledFPP(level), layer);
+        headLevel = level;
+
+        return layer;
+    }
+
+    /**
+     * May be called from the preallocator, so only reads the scaling parameters.
+     */
+    private BloomLayer createBloomFilter(int level) {
+        double scaledCapacity = getScaledCapacity(level);
+        double scaledFPP = getScaledFPP(level);
 
-        LOG.info("creating bloom filter: {}, num: {}, with scaledCapacity: {}, scaledFalsePositiveProbability: {}", name, size + 1, scaledCapacity, scaledFPP);
+        LOG.info("creating bloom filter: {}, level: {}, layers: {}, with scaledCapacity: {}, scaledFalsePositiveProbability: {}", name, level, bloomFilters.size() + 1, scaledCapacity, scaledFPP);
         LogUtil.logMemory(LOG, "memory before bloom scaling");
 
         try {
-            return BloomFilter.create(getFunnel(), (int) scaledCapacity, scaledFPP);
+            return layout.create((long) scaledCapacity, scaledFPP, storage);
         } finally {
             LogUtil.logMemory(LOG, "memory after bloom scaling");
         }
     }
 
-    private double getScaledCapacity(int size) {
-        return initialCapacity * Math.pow(growthRate.rate, size);
+    private void setHeadScaledFPP(double scaledFPP) {
+        setHeadScaledFPP(scaledFPP, bloomFilters.getFirst());
+    }
+
+    private void setHeadScaledFPP(double scaledFPP, BloomLayer head) {
+        headScaledFPP = scaledFPP;
+        // the fill is the k-th root of the fpp
+        headPreallocateFPP = scaledFPP * Math.pow(PREALLOCATE_FILL, head.numHashFunctions());
+    }
+
+    /**
+     * @return the level whose shape the given layer has, or the default if none match, as for a file written by
+     * another layout
+     */
+    private int levelOf(BloomLayer layer, int defaultLevel) {
+        for (int level = 0; level <= defaultLevel; level++) {
+            // compared in words, as storage rounds the bits up to whole words
+            if ((layer.bitSize() + Long.SIZE - 1) / Long.SIZE == (layout.numOfBits((long) getScaledCapacity(level), getScaledFPP(level)) + Long.SIZE - 1) / Long.SIZE) {
+                return level;
+            }
+        }
+
+        return defaultLevel;
+    }
+
+    private double getScaledCapacity(int level) {
+        return initialCapacity * Math.pow(growthRate.rate, level);
+    }
+
+    /**
+     * The layer target, lowered by the layout to account for any penalty it carries, so the layer gives the
+     * intended false positive probability once full.
+     */
+    private double getScaledFPP(int level) {
+        return layout.compensatedFpp(falsePositiveProbability * Math.pow(errorProbabilityRatio, level));
     }
 
-    private double getScaledFPP(int size) {
-        return falsePositiveProbability * Math.pow(errorProbabilityRatio, size);
+    /**
+     * Writes every layer, along with the insert count and scaling parameters, to the given file.
+     * <p>
+     * Layer bits are aligned to 8 bytes in the file so they can be memory mapped by {@link #open(Path)}.
+     */
+    public void writeTo(Path path) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int headerBytes = FILE_HEADER_BYTES + nameBytes.length + bloomFilters.size() * FILE_LAYER_BYTES;
+        ByteBuffer header = ByteBuffer.allocate((int) align(headerBytes)).order(ByteOrder.LITTLE_ENDIAN);
+
+        header.putInt(FILE_MAGIC)
+                .putInt(FILE_VERSION)
+                .putInt(growthRate.ordinal())
+                .putInt(layout.ordinal())
+                .putFloat(errorProbabilityRatio)
+                .putLong(initialCapacity)
+                .putDouble(falsePositiveProbability)
+                .putLong(insertCount)
+                .putInt(nameBytes.length)
+                .put(nameBytes)
+                .putInt(bloomFilters.size());
+
+        for (BloomLayer bloomFilter : bloomFilters) {
+            header.putInt(bloomFilter.numHashFunctions())
+                    .putLong(bloomFilter.bitSize())
+                    .putLong(bloomFilter.bitCount());
+        }
+
+        // include the alignment padding
+        header.clear();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+
+            for (BloomLayer bloomFilter : bloomFilters) {
+                bloomFilter.writeTo(channel);
+            }
+        }
     }
 
-    private Funnel<ByteBuffer> getFunnel() {
-        return (from, into) -> into.putBytes(from.rewind());
+    /**
+     * Releases the layers, required to free the memory held by {@link Storage#DIRECT} layers or to unmap a filter
+     * re-opened by {@link #open(Path)}. The filter must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        discardPreallocated();
+
+        for (BloomLayer bloomFilter : bloomFilters) {
+            bloomFilter.close();
+        }
+
+        bloomFilters.clear();
     }
 
     @Override
@@ -175,6 +1189,8 @@
                 .add("errorProbabilityRatio=" + errorProbabilityRatio)
                 .add("initialCapacity=" + initialCapacity)
                 .add("falsePositiveProbability=" + falsePositiveProbability)
+                .add("storage=" + storage)
+                .add("layout=" + layout)
                 .toString();
     }
 }
@@ -0,0 +1,292 @@
+/**
+ * A thread safe filter that routes each key, by its hash, to one of a fixed number of independent
+ * {@link ConcurrentScalableBloomFilter} shards.
+ * <p>
+ * Threads inserting different keys mostly touch different shards, so rarely contend on the same words, and each
+ * shard scales on its own, so one thread adding a layer never holds up inserts into the other shards. Each shard is
+ * created with an equal share of the initial capacity.
+ * <p>
+ * The shard is chosen from a re-mix of the key hash, so it is independent of the probe positions the shard derives
+ * from the same hash.
+ * <p>
+ * {@link #putAll(long[])} bulk loads a batch on a {@link ForkJoinPool}, hashing in parallel, then inserting into
+ * every shard in parallel with one task per shard.
+ */
+public class ShardedBloomFilter implements MembershipFilter {
+    private static final int HASH_BATCH_SIZE = 4 * 1024;
+    private final String name;
+    private final ConcurrentScalableBloomFilter[] shards;
+    private final ForkJoinPool pool;
+
+    public ShardedBloomFilter(ScalableBloomFilter.Rate growthRate, int initialCapacity, double falsePositiveProbability) {
+        this(Runtime.getRuntime().availableProcessors(), growthRate, ScalableBloomFilter.ERROR_PROBABILITY_RATIO, initialCapacity, falsePositiveProbability);
+    }
+
+    public ShardedBloomFilter(int numShards, ScalableBloomFilter.Rate growthRate, float errorProbabilityRatio, long initialCapacity, double falsePositiveProbability) {
+        this(null, numShards, growthRate, errorProbabilityRatio, initialCapacity, falsePositiveProbability, ScalableBloomFilter.Storage.HEAP, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param numShards the number of independent filters, a few times the number of inserting threads is plenty
+     * @param pool      runs {@link #putAll(long[])} and {@link #putAll(ByteBuffer[])}
+     */
+    public ShardedBloomFilter(String name, int numShards, ScalableBloomFilter.Rate growthRate, float errorProbabilityRatio, long initialCapacity, double falsePositiveProbability, ScalableBloomFilter.Storage storage, ForkJoinPool pool) {
+        if (numShards < 1) {
+            throw new IllegalArgumentException("numShards must be at least 1, got: " + numShards);
+        }
+
+        this.name = Objects.requireNonNullElse(name, "default");
+        this.shards = new ConcurrentScalableBloomFilter[numShards];
+        this.pool = pool;
+
+        long shardCapacity = Math.max(1, initialCapacity / numShards);
+
+        try {
+            for (int i = 0; i < numShards; i++) {
+                shards[i] = new ConcurrentScalableBloomFilter(this.name + "-" + i, growthRate, errorProbabilityRatio, shardCapacity, falsePositiveProbability, storage);
+            }
+        } catch (RuntimeException | OutOfMemoryError e) {
+            close();
+            throw e;
+        }
+    }
+
+    public int numShards() {
+        return shards.length;
+    }
+
+    public long getInsertCount() {
+        long result = 0;
+
+        for (ConcurrentScalableBloomFilter shard : shards) {
+            result += shard.getInsertCount();
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the number of layers of each shard
+     */
+    public int[] size() {
+        int[] result = new int[shards.length];
+
+        for (int i = 0; i < shards.length; i++) {
+            result[i] = shards[i].size();
+        }
+
+        return result;
+    }
+
+    /**
+     * @param tuple the key to insert
+     * @return true if the key might have already been inserted
+     */
+    @Override
+    public boolean put(ByteBuffer tuple) {
+        long[] hash = new long[2];
+        Murmur3.hash128(tuple, hash, 0);
+
+        return shard(hash[0], hash[1]).putHashed(hash[0], hash[1]);
+    }
+
+    /**
+     * @see ScalableBloomFilter#put(long)
+     */
+    @Override
+    public boolean put(long key) {
+        long hash1 = Murmur3.hash1(key);
+        long hash2 = Murmur3.hash2(key);
+
+        return shard(hash1, hash2).putHashed(hash1, hash2);
+    }
+
+    @Override
+    public boolean put(int key) {
+        return put((long) key);
+    }
+
+    @Override
+    public boolean mightContain(ByteBuffer tuple) {
+        long[] hash = new long[2];
+        Murmur3.hash128(tuple, hash, 0);
+
+        return shard(hash[0], hash[1]).mightContainHashed(hash[0], hash[1]);
+    }
+
+    @Override
+    public boolean mightContain(long key) {
+        long hash1 = Murmur3.hash1(key);
+        long hash2 = Murmur3.hash2(key);
+
+        return shard(hash1, hash2).mightContainHashed(hash1, hash2);
+    }
+
+    @Override
+    public boolean mightContain(int key) {
+        return mightContain((long) key);
+    }
+
+    /**
+     * Inserts a batch of keys in parallel, equivalent to calling {@link #put(ByteBuffer)} on each in order.
+     *
+     * @return a bitmap where bit {@code i} is set if {@code tuples[i]} might have already been inserted
+     */
+    public long[] putAll(ByteBuffer[] tuples) {
+        long[] hashes = new long[tuples.length * 2];
+
+        pool.invoke(new HashTask(0, tuples.length, i -> Murmur3.hash128(tuples[i], hashes, 2 * i)));
+
+        return putAllHashed(hashes, tuples.length);
+    }
+
+    /**
+     * Inserts a batch of keys in parallel, equivalent to calling {@link #put(long)} on each in order.
+     * <p>
+     * Keys are grouped by shard, and each shard inserts its own keys in batch order, so duplicates within the batch
+     * are reported as they would be by sequential puts.
+     *
+     * @return a bitmap where bit {@code i} is set if {@code keys[i]} might have already been inserted
+     */
+    public long[] putAll(long[] keys) {
+        long[] hashes = new long[keys.length * 2];
+
+        pool.invoke(new HashTask(0, keys.length, i -> {
+            hashes[2 * i] = Murmur3.hash1(keys[i]);
+            hashes[2 * i + 1] = Murmur3.hash2(keys[i]);
+        }));
+
+        return putAllHashed(hashes, keys.length);
+    }
+
+    private long[] putAllHashed(long[] hashes, int count) {
+        // counting sort of the batch indexes by shard, preserving batch order within each shard
+        int[] shardOf = new int[count];
+        int[] starts = new int[shards.length + 1];
+
+        for (int i = 0; i < count; i++) {
+            shardOf[i] = shardIndex(hashes[2 * i], hashes[2 * i + 1]);
+            starts[shardOf[i] + 1]++;
+        }
+
+        for (int i = 0; i < shards.length; i++) {
+            starts[i + 1] += starts[i];
+        }
+
+        int[] order = new int[count];
+        int[] next = Arrays.copyOf(starts, shards.length);
+
+        for (int i = 0; i < count; i++) {
+            order[next[shardOf[i]]++] = i;
+        }
+
+        // each index is written by exactly one shard task
+        boolean[] contained = new boolean[count];
+        List<RecursiveAction> tasks = new ArrayList<>(shards.length);
+
+        for (int shard = 0; shard < shards.length; shard++) {
+            ConcurrentScalableBloomFilter filter = shards[shard];
+            int from = starts[shard];
+            int to = starts[shard + 1];
+
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    for (int j = from; j < to; j++) {
+                        int i = order[j];
+                        contained[i] = filter.putHashed(hashes[2 * i], hashes[2 * i + 1]);
+                    }
+                }
+            });
+        }
+
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        long[] result = new long[(count + Long.SIZE - 1) / Long.SIZE];
+
+        for (int i = 0; i < count; i++) {
+            if (contained[i]) {
+                result[i >>> 6] |= 1L << i;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the expected false positive probability of each layer, per shard
+     */
+    public double[][] expectedFpp() {
+        double[][] result = new double[shards.length][];
+
+        for (int i = 0; i < shards.length; i++) {
+            result[i] = shards[i].expectedFpp();
+        }
+
+        return result;
+    }
+
+    private ConcurrentScalableBloomFilter shard(long hash1, long hash2) {
+        return shards[shardIndex(hash1, hash2)];
+    }
+
+    private int shardIndex(long hash1, long hash2) {
+        return (int) ((Murmur3.fmix64(hash1 ^ hash2) >>> 1) % shards.length);
+    }
+
+    /**
+     * Releases every shard, see {@link ConcurrentScalableBloomFilter#close()}.
+     */
+    @Override
+    public void close() {
+        for (ConcurrentScalableBloomFilter shard : shards) {
+            if (shard != null) {
+                shard.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", ShardedBloomFilter.class.getSimpleName() + "[", "]")
+                .add("name=" + name)
+                .add("numShards=" + shards.length)
+                .add("shard=" + shards[0])
+                .toString();
+    }
+
+    /**
+     * Applies the given hash function to each index of a range, splitting the range across the pool.
+     */
+    private static class HashTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final IntConsumer hash;
+
+        HashTask(int from, int to, IntConsumer hash) {
+            this.from = from;
+            this.to = to;
+            this.hash = hash;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= HASH_BATCH_SIZE) {
+                for (int i = from; i < to; i++) {
+                    hash.accept(i);
+                }
+
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+
+            invokeAll(new HashTask(from, middle, hash), new HashTask(middle, to, hash));
+        }
+    }
+}
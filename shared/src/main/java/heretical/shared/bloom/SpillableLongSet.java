@@ -0,0 +1,375 @@
+/**
+ * A set of primitive longs in an open addressing hash table, which spills to sorted run files on local disk once it
+ * holds a given number of values, so memory stays bounded however many values are added.
+ * <p>
+ * Values are first added to the table, linear probing over a power of two array kept no more than half full. When
+ * the table reaches its limit its values are sorted and written to a new run file, and the table is cleared. A lookup
+ * tests the table, then binary searches each run, which is memory mapped so the searched pages stay in the OS page
+ * cache. Once there are more than {@link #MAX_RUNS} runs they are merged into one, so lookups search few runs.
+ * <p>
+ * A value is only ever held once, either in the table or in a single run.
+ * <p>
+ * Run files are deleted by {@link #close()}. This class is not thread safe.
+ */
+public class SpillableLongSet implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SpillableLongSet.class);
+    static final int MAX_RUNS = 16;
+    // longs per mapped segment, 1GB
+    private static final int SEGMENT_SHIFT = 27;
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+    private static final long EMPTY = 0;
+    private final int maxMemoryValues;
+    private final Path spillDirectory;
+    private long[] table;
+    private int mask;
+    private int tableSize = 0;
+    // zero marks an empty slot, so is held apart
+    private boolean containsEmpty = false;
+    private final List<Run> runs = new ArrayList<>();
+    private long size = 0;
+
+    /**
+     * @param maxMemoryValues the number of values held in memory before spilling, the table takes 16 to 32 bytes
+     *                        per value, 16 when a power of two
+     * @param spillDirectory  where run files are written
+     */
+    public SpillableLongSet(int maxMemoryValues, Path spillDirectory) {
+        if (maxMemoryValues < 1 || maxMemoryValues > 1 << 29) {
+            throw new IllegalArgumentException("maxMemoryValues must be between 1 and 2^29, got: " + maxMemoryValues);
+        }
+
+        this.maxMemoryValues = maxMemoryValues;
+        this.spillDirectory = spillDirectory;
+        this.table = new long[Math.min(1024, tableLength(maxMemoryValues))];
+        this.mask = table.length - 1;
+    }
+
+    private static int tableLength(int values) {
+        return Integer.highestOneBit(Math.max(1, values) * 2 - 1) << 1;
+    }
+
+    /**
+     * @return the number of values in the set
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of run files currently spilled to disk
+     */
+    public int runCount() {
+        return runs.size();
+    }
+
+    public boolean contains(long value) {
+        if (memoryContains(value)) {
+            return true;
+        }
+
+        for (Run run : runs) {
+            if (run.contains(value)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if the value was added, false if already present
+     */
+    public boolean add(long value) {
+        if (contains(value)) {
+            return false;
+        }
+
+        addAbsent(value);
+
+        return true;
+    }
+
+    /**
+     * Adds a value the caller knows is not in the set, without looking it up, so without touching the runs.
+     */
+    void addAbsent(long value) {
+        addToMemory(value);
+        size++;
+
+        if (tableSize + (containsEmpty ? 1 : 0) >= maxMemoryValues) {
+            spill();
+        }
+    }
+
+    private boolean memoryContains(long value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+
+        for (int slot = slot(value); ; slot = (slot + 1) & mask) {
+            long current = table[slot];
+
+            if (current == value) {
+                return true;
+            }
+
+            if (current == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    private void addToMemory(long value) {
+        if (value == EMPTY) {
+            containsEmpty = true;
+            return;
+        }
+
+        if (2 * (tableSize + 1) > table.length) {
+            resize(table.length * 2);
+        }
+
+        insert(table, mask, value);
+        tableSize++;
+    }
+
+    private int slot(long value) {
+        return (int) Murmur3.fmix64(value) & mask;
+    }
+
+    private static void insert(long[] table, int mask, long value) {
+        int slot = (int) Murmur3.fmix64(value) & mask;
+
+        while (table[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+
+        table[slot] = value;
+    }
+
+    private void resize(int length) {
+        long[] resized = new long[length];
+        int resizedMask = length - 1;
+
+        for (long value : table) {
+            if (value != EMPTY) {
+                insert(resized, resizedMask, value);
+            }
+        }
+
+        table = resized;
+        mask = resizedMask;
+    }
+
+    private void spill() {
+        long[] values = new long[tableSize + (containsEmpty ? 1 : 0)];
+        int count = 0;
+
+        if (containsEmpty) {
+            values[count++] = EMPTY;
+        }
+
+        for (long value : table) {
+            if (value != EMPTY) {
+                values[count++] = value;
+            }
+        }
+
+        Arrays.sort(values);
+
+        try {
+            runs.add(Run.write(spillDirectory, LongStream.of(values).iterator(), values.length));
+
+            if (runs.size() > MAX_RUNS) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("unable to spill values to: " + spillDirectory, e);
+        }
+
+        // the table is kept at its full size, it will fill again
+        Arrays.fill(table, EMPTY);
+        tableSize = 0;
+        containsEmpty = false;
+    }
+
+    /**
+     * Merges every run into one.
+     */
+    private void compact() throws IOException {
+        long count = 0;
+        for (Run run : runs) {
+            count += run.length;
+        }
+
+        LOG.info("merging {} spilled runs, values: {}, in: {}", runs.size(), count, spillDirectory);
+
+        Run merged = Run.write(spillDirectory, new MergeIterator(runs), count);
+
+        for (Run run : runs) {
+            run.close();
+        }
+
+        runs.clear();
+        runs.add(merged);
+    }
+
+    /**
+     * Deletes every run file, the set must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        for (Run run : runs) {
+            run.close();
+        }
+
+        runs.clear();
+        table = null;
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", SpillableLongSet.class.getSimpleName() + "[", "]")
+                .add("size=" + size)
+                .add("maxMemoryValues=" + maxMemoryValues)
+                .add("runs=" + runs.size())
+                .add("spillDirectory=" + spillDirectory)
+                .toString();
+    }
+
+    /**
+     * A sorted, memory mapped file of unique values.
+     */
+    private static class Run implements Closeable {
+        private final Path path;
+        private final long length;
+        private final ByteBuffer[] buffers;
+        private final LongBuffer[] segments;
+
+        private Run(Path path, long length, ByteBuffer[] buffers) {
+            this.path = path;
+            this.length = length;
+            this.buffers = buffers;
+            this.segments = new LongBuffer[buffers.length];
+
+            for (int i = 0; i < buffers.length; i++) {
+                segments[i] = buffers[i].asLongBuffer();
+            }
+        }
+
+        static Run write(Path directory, PrimitiveIterator.OfLong values, long length) throws IOException {
+            Path path = Files.createTempFile(directory, "spill-", ".run");
+
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), WRITE_BUFFER_BYTES))) {
+                while (values.hasNext()) {
+                    output.writeLong(values.nextLong());
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(path);
+                throw e;
+            }
+
+            ByteBuffer[] buffers = new ByteBuffer[(int) ((length + (1L << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT)];
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                for (int i = 0; i < buffers.length; i++) {
+                    long position = (long) i << SEGMENT_SHIFT;
+                    buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, position * Long.BYTES, Math.min(1L << SEGMENT_SHIFT, length - position) * Long.BYTES);
+                }
+            } catch (IOException | RuntimeException e) {
+                ByteBufferBitArray.free(buffers);
+                Files.deleteIfExists(path);
+                throw e;
+            }
+
+            return new Run(path, length, buffers);
+        }
+
+        long get(long index) {
+            return segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & ((1 << SEGMENT_SHIFT) - 1)));
+        }
+
+        boolean contains(long value) {
+            long low = 0;
+            long high = length - 1;
+
+            while (low <= high) {
+                long middle = (low + high) >>> 1;
+                long current = get(middle);
+
+                if (current < value) {
+                    low = middle + 1;
+                } else if (current > value) {
+                    high = middle - 1;
+                } else {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public void close() {
+            ByteBufferBitArray.free(buffers);
+
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOG.warn("unable to delete spilled run: {}", path, e);
+            }
+        }
+    }
+
+    /**
+     * Merges sorted runs of unique values into one sorted stream, there are few runs so the smallest head is found by
+     * a scan.
+     */
+    private static class MergeIterator implements PrimitiveIterator.OfLong {
+        private final List<Run> runs;
+        private final long[] positions;
+
+        MergeIterator(List<Run> runs) {
+            this.runs = runs;
+            this.positions = new long[runs.size()];
+        }
+
+        @Override
+        public boolean hasNext() {
+            for (int i = 0; i < positions.length; i++) {
+                if (positions[i] < runs.get(i).length) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public long nextLong() {
+            int smallest = -1;
+            long value = 0;
+
+            for (int i = 0; i < positions.length; i++) {
+                if (positions[i] == runs.get(i).length) {
+                    continue;
+                }
+
+                long current = runs.get(i).get(positions[i]);
+
+                if (smallest == -1 || current < value) {
+                    smallest = i;
+                    value = current;
+                }
+            }
+
+            if (smallest == -1) {
+                throw new NoSuchElementException();
+            }
+
+            positions[smallest]++;
+
+            return value;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * A Stable Bloom Filter, Deng and Rafiei "Approximately Detecting Duplicates for Streaming Data using Stable Bloom
+ * Filters", 2006.
+ * <p>
+ * Each cell is a small counter rather than a bit. Every insert first decrements a run of {@code P} cells starting at
+ * a random position, then sets the {@code K} cells of the key to the counter maximum. Old keys decay away, so memory
+ * is fixed at {@code numCells * cellBits} bits however long the stream, and the fraction of zero cells, and with it
+ * the false positive rate, settles to the steady state given by {@link #steadyStateFpp()}.
+ * <p>
+ * The price is false negatives, a key inserted long enough ago may have decayed and be reported as new. The
+ * {@code P} cells are decremented as one consecutive run, which the paper notes behaves like random cells but
+ * touches far fewer cache lines.
+ * <p>
+ * This class is not thread safe.
+ */
+public class StableBloomFilter implements MembershipFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(StableBloomFilter.class);
+    private final String name;
+    private final long numCells;
+    private final int cellBits;
+    private final int cellsPerWordShift;
+    private final long cellMax;
+    private final int numHashFunctions;
+    private final long decrementCount;
+    private final long[] cells;
+    private final SplittableRandom random;
+    // scratch space for the two halves of a key hash
+    private final long[] hash = new long[2];
+    private long insertCount = 0;
+    private long nonZeroCells = 0;
+
+    /**
+     * @param numCells                 the fixed number of counters
+     * @param cellBits                 bits per counter, one of 1, 2, 4 or 8, the counter maximum is {@code 2^cellBits - 1}
+     * @param numHashFunctions         the number of cells set per key
+     * @param falsePositiveProbability the steady state false positive probability used to derive the number of cells to
+     *                                 decrement per insert
+     */
+    public StableBloomFilter(long numCells, int cellBits, int numHashFunctions, double falsePositiveProbability) {
+        this(null, numCells, cellBits, numHashFunctions, falsePositiveProbability);
+    }
+
+    public StableBloomFilter(String name, long numCells, int cellBits, int numHashFunctions, double falsePositiveProbability) {
+        this(name, numCells, cellBits, numHashFunctions, optimalDecrementCount(numCells, cellBits, numHashFunctions, falsePositiveProbability), new SplittableRandom());
+    }
+
+    /**
+     * @param decrementCount the number of cells, {@code P} in the paper, decremented on every insert
+     * @param random         the source of the decrement positions
+     */
+    public StableBloomFilter(String name, long numCells, int cellBits, int numHashFunctions, long decrementCount, SplittableRandom random) {
+        if (Integer.bitCount(cellBits) != 1 || cellBits > Byte.SIZE) {
+            throw new IllegalArgumentException("cellBits must be one of 1, 2, 4, or 8, got: " + cellBits);
+        }
+
+        if (numHashFunctions < 1 || numCells < numHashFunctions) {
+            throw new IllegalArgumentException("numCells must be at least numHashFunctions, and numHashFunctions at least 1");
+        }
+
+        long words = (numCells * cellBits + Long.SIZE - 1) / Long.SIZE;
+
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("stable bloom filter too large, num cells: " + numCells);
+        }
+
+        this.name = Objects.requireNonNullElse(name, "default");
+        this.numCells = numCells;
+        this.cellBits = cellBits;
+        this.cellsPerWordShift = Integer.numberOfTrailingZeros(Long.SIZE / cellBits);
+        this.cellMax = (1L << cellBits) - 1;
+        this.numHashFunctions = numHashFunctions;
+        this.decrementCount = Math.max(1, Math.min(decrementCount, numCells));
+        this.random = random;
+
+        LOG.info("creating stable bloom filter: {}, cells: {}, cell bits: {}, hash functions: {}, decrement count: {}", this.name, numCells, cellBits, numHashFunctions, this.decrementCount);
+
+        this.cells = new long[(int) words];
+    }
+
+    /**
+     * The number of cells to decrement per insert, {@code P}, so the steady state false positive probability is the
+     * one given, from equation 17 of the paper.
+     */
+    public static long optimalDecrementCount(long numCells, int cellBits, int numHashFunctions, double falsePositiveProbability) {
+        double max = (1L << cellBits) - 1;
+        double denominator = (Math.pow(1 / (1 - Math.pow(falsePositiveProbability, 1.0 / numHashFunctions)), 1 / max) - 1) * (1.0 / numHashFunctions - 1.0 / numCells);
+
+        return Math.max(1, Math.round(1 / denominator));
+    }
+
+    public long getInsertCount() {
+        return insertCount;
+    }
+
+    public long getNumCells() {
+        return numCells;
+    }
+
+    public long getDecrementCount() {
+        return decrementCount;
+    }
+
+    /**
+     * @param tuple the key to insert
+     * @return true if the key might have already been inserted
+     */
+    @Override
+    public boolean put(ByteBuffer tuple) {
+        Murmur3.hash128(tuple, hash, 0);
+
+        return putHashed(hash[0], hash[1]);
+    }
+
+    /**
+     * @see ScalableBloomFilter#put(long)
+     */
+    @Override
+    public boolean put(long key) {
+        return putHashed(Murmur3.hash1(key), Murmur3.hash2(key));
+    }
+
+    @Override
+    public boolean put(int key) {
+        return put((long) key);
+    }
+
+    private boolean putHashed(long hash1, long hash2) {
+        boolean contained = mightContainHashed(hash1, hash2);
+
+        decrement(random.nextLong(numCells));
+
+        long combinedHash = hash1;
+        for (int i = 0; i < numHashFunctions; i++) {
+            long index = (combinedHash & Long.MAX_VALUE) % numCells;
+
+            if (get(index) == 0) {
+                nonZeroCells++;
+            }
+
+            set(index, cellMax);
+            combinedHash += hash2;
+        }
+
+        if (!contained) {
+            insertCount++;
+        }
+
+        return contained;
+    }
+
+    @Override
+    public boolean mightContain(ByteBuffer tuple) {
+        Murmur3.hash128(tuple, hash, 0);
+
+        return mightContainHashed(hash[0], hash[1]);
+    }
+
+    @Override
+    public boolean mightContain(long key) {
+        return mightContainHashed(Murmur3.hash1(key), Murmur3.hash2(key));
+    }
+
+    @Override
+    public boolean mightContain(int key) {
+        return mightContain((long) key);
+    }
+
+    private boolean mightContainHashed(long hash1, long hash2) {
+        long combinedHash = hash1;
+        for (int i = 0; i < numHashFunctions; i++) {
+            if (get((combinedHash & Long.MAX_VALUE) % numCells) == 0) {
+                return false;
+            }
+            combinedHash += hash2;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the false positive probability given the current fraction of non zero cells
+     */
+    public double expectedFpp() {
+        return Math.pow((double) nonZeroCells / numCells, numHashFunctions);
+    }
+
+    /**
+     * @return the false positive probability the filter converges to as the stream grows, equation 14 of the paper
+     */
+    public double steadyStateFpp() {
+        double zeroCells = Math.pow(1 / (1 + 1 / (decrementCount * (1.0 / numHashFunctions - 1.0 / numCells))), cellMax);
+
+        return Math.pow(1 - zeroCells, numHashFunctions);
+    }
+
+    private void decrement(long start) {
+        long index = start;
+        for (long i = 0; i < decrementCount; i++) {
+            long value = get(index);
+
+            if (value != 0) {
+                set(index, value - 1);
+
+                if (value == 1) {
+                    nonZeroCells--;
+                }
+            }
+
+            if (++index == numCells) {
+                index = 0;
+            }
+        }
+    }
+
+    private long get(long index) {
+        int word = (int) (index >>> cellsPerWordShift);
+        int shift = (int) (index & ((1 << cellsPerWordShift) - 1)) * cellBits;
+
+        return (cells[word] >>> shift) & cellMax;
+    }
+
+    private void set(long index, long value) {
+        int word = (int) (index >>> cellsPerWordShift);
+        int shift = (int) (index & ((1 << cellsPerWordShift) - 1)) * cellBits;
+
+        cells[word] = (cells[word] & ~(cellMax << shift)) | (value << shift);
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", StableBloomFilter.class.getSimpleName() + "[", "]")
+                .add("name=" + name)
+                .add("numCells=" + numCells)
+                .add("cellBits=" + cellBits)
+                .add("numHashFunctions=" + numHashFunctions)
+                .add("decrementCount=" + decrementCount)
+                .toString();
+    }
+}
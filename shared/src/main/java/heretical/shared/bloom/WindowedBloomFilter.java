@@ -0,0 +1,258 @@
+/**
+ * A filter over the keys put within a sliding window of time, held as a ring of {@link ScalableBloomFilter}
+ * buckets, one per {@link TemporalUnit} of the window.
+ * <p>
+ * Buckets are aligned to the epoch, so with {@link DurationUnit#SIXTHS} or {@link DurationUnit#TWELFTHS} a bucket
+ * holds the keys of one {@link DurationField#SIXTH_OF_DAY} or {@link DurationField#TWELFTH_OF_DAY} value, any
+ * {@link ChronoUnit} with an exact duration of at least a millisecond, such as {@link ChronoUnit#HOURS}, may be used
+ * as well.
+ * <p>
+ * Keys are put into the bucket of the current time, and {@link #mightContain(long)} tests every live bucket. As time
+ * passes into a new bucket, the buckets that fell out of the window are dropped, without touching the others, so
+ * memory stays bounded by the window and an expired key never causes a false positive. A bucket is only created when
+ * a key is first put into it.
+ * <p>
+ * A key seen again is put into the current bucket, so the window is measured from the last time a key was seen.
+ * <p>
+ * Each key is hashed once, and every bucket probes the same hash.
+ * <p>
+ * This class is not thread safe.
+ */
+public class WindowedBloomFilter implements MembershipFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(WindowedBloomFilter.class);
+    private final String name;
+    private final Clock clock;
+    private final TemporalUnit bucketUnit;
+    private final long bucketMillis;
+    private final ScalableBloomFilter.Rate growthRate;
+    private final float errorProbabilityRatio;
+    private final long bucketCapacity;
+    private final double falsePositiveProbability;
+    private final ScalableBloomFilter.Storage storage;
+    // indexed by bucket number modulo the number of buckets, null if expired or never put into
+    private final ScalableBloomFilter[] buckets;
+    private long currentBucket;
+    // scratch space for the two halves of a key hash, this class is not thread safe
+    private final long[] hash = new long[2];
+
+    public WindowedBloomFilter(TemporalUnit bucketUnit, int numBuckets, ScalableBloomFilter.Rate growthRate, long bucketCapacity, double falsePositiveProbability) {
+        this(null, Clock.systemUTC(), bucketUnit, numBuckets, growthRate, ScalableBloomFilter.ERROR_PROBABILITY_RATIO, bucketCapacity, falsePositiveProbability, ScalableBloomFilter.Storage.HEAP);
+    }
+
+    /**
+     * @param bucketUnit     the span of time held by each bucket, must have an exact duration
+     * @param numBuckets     the number of buckets in the window, the current bucket included
+     * @param bucketCapacity the initial capacity of each bucket, the number of keys expected per unit
+     */
+    public WindowedBloomFilter(String name, Clock clock, TemporalUnit bucketUnit, int numBuckets, ScalableBloomFilter.Rate growthRate, float errorProbabilityRatio, long bucketCapacity, double falsePositiveProbability, ScalableBloomFilter.Storage storage) {
+        if (bucketUnit.isDurationEstimated()) {
+            throw new IllegalArgumentException("bucketUnit must have an exact duration, got: " + bucketUnit);
+        }
+
+        // buckets are counted off the millisecond clock
+        if (bucketUnit.getDuration().toMillis() < 1) {
+            throw new IllegalArgumentException("bucketUnit must be at least one millisecond, got: " + bucketUnit);
+        }
+
+        if (numBuckets < 1) {
+            throw new IllegalArgumentException("numBuckets must be at least 1, got: " + numBuckets);
+        }
+
+        this.name = Objects.requireNonNullElse(name, "default");
+        this.clock = clock;
+        this.bucketUnit = bucketUnit;
+        this.bucketMillis = bucketUnit.getDuration().toMillis();
+        this.growthRate = growthRate;
+        this.errorProbabilityRatio = errorProbabilityRatio;
+        this.bucketCapacity = bucketCapacity;
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.storage = storage;
+        this.buckets = new ScalableBloomFilter[numBuckets];
+        this.currentBucket = Math.floorDiv(clock.millis(), bucketMillis);
+    }
+
+    public TemporalUnit getBucketUnit() {
+        return bucketUnit;
+    }
+
+    /**
+     * @return the span of time covered by the window
+     */
+    public Duration getWindow() {
+        return bucketUnit.getDuration().multipliedBy(buckets.length);
+    }
+
+    /**
+     * @return the number of live buckets holding keys
+     */
+    public int size() {
+        rotate();
+
+        int result = 0;
+        for (ScalableBloomFilter bucket : buckets) {
+            if (bucket != null) {
+                result++;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the number of keys inserted into the live buckets, a key put in several buckets is counted in each
+     */
+    public long getInsertCount() {
+        rotate();
+
+        long result = 0;
+        for (ScalableBloomFilter bucket : buckets) {
+            if (bucket != null) {
+                result += bucket.getInsertCount();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @param tuple the key to insert
+     * @return true if the key might have been put within the window
+     */
+    @Override
+    public boolean put(ByteBuffer tuple) {
+        Murmur3.hash128(tuple, hash, 0);
+
+        return putHashed(hash[0], hash[1]);
+    }
+
+    /**
+     * @see ScalableBloomFilter#put(long)
+     */
+    @Override
+    public boolean put(long key) {
+        return putHashed(Murmur3.hash1(key), Murmur3.hash2(key));
+    }
+
+    @Override
+    public boolean put(int key) {
+        return put((long) key);
+    }
+
+    private boolean putHashed(long hash1, long hash2) {
+        rotate();
+
+        int current = slot(currentBucket);
+
+        if (buckets[current] == null) {
+            buckets[current] = createBucket();
+        }
+
+        if (buckets[current].putHashed(hash1, hash2)) {
+            return true;
+        }
+
+        for (int i = 1; i < buckets.length; i++) {
+            ScalableBloomFilter bucket = buckets[slot(currentBucket - i)];
+
+            if (bucket != null && bucket.mightContainHashed(hash1, hash2)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean mightContain(ByteBuffer tuple) {
+        Murmur3.hash128(tuple, hash, 0);
+
+        return mightContainHashed(hash[0], hash[1]);
+    }
+
+    @Override
+    public boolean mightContain(long key) {
+        return mightContainHashed(Murmur3.hash1(key), Murmur3.hash2(key));
+    }
+
+    @Override
+    public boolean mightContain(int key) {
+        return mightContain((long) key);
+    }
+
+    private boolean mightContainHashed(long hash1, long hash2) {
+        rotate();
+
+        // newest first, recent keys are the most likely to be seen again
+        for (int i = 0; i < buckets.length; i++) {
+            ScalableBloomFilter bucket = buckets[slot(currentBucket - i)];
+
+            if (bucket != null && bucket.mightContainHashed(hash1, hash2)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Drops the buckets that fell out of the window since the last call, at most one pass over the ring however long
+     * the filter sat idle. If the clock moves backwards the current bucket is kept.
+     */
+    private void rotate() {
+        long bucket = Math.floorDiv(clock.millis(), bucketMillis);
+
+        if (bucket <= currentBucket) {
+            return;
+        }
+
+        long expired = Math.min(bucket - currentBucket, buckets.length);
+
+        for (long i = 1; i <= expired; i++) {
+            int slot = slot(currentBucket + i);
+
+            if (buckets[slot] != null) {
+                LOG.debug("dropping expired bucket: {}, in: {}", buckets[slot], name);
+
+                buckets[slot].close();
+                buckets[slot] = null;
+            }
+        }
+
+        currentBucket = bucket;
+    }
+
+    private int slot(long bucket) {
+        return (int) Math.floorMod(bucket, (long) buckets.length);
+    }
+
+    private ScalableBloomFilter createBucket() {
+        Instant start = Instant.ofEpochMilli(currentBucket * bucketMillis);
+
+        return new ScalableBloomFilter(name + "-" + start, growthRate, errorProbabilityRatio, bucketCapacity, falsePositiveProbability, storage);
+    }
+
+    /**
+     * Releases every bucket, see {@link ScalableBloomFilter#close()}.
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] != null) {
+                buckets[i].close();
+                buckets[i] = null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", WindowedBloomFilter.class.getSimpleName() + "[", "]")
+                .add("name=" + name)
+                .add("bucketUnit=" + bucketUnit)
+                .add("numBuckets=" + buckets.length)
+                .add("growthRate=" + growthRate)
+                .add("bucketCapacity=" + bucketCapacity)
+                .add("falsePositiveProbability=" + falsePositiveProbability)
+                .toString();
+    }
+}
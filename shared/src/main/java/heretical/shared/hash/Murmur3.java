@@ -0,0 +1,193 @@
+/**
+ * Allocation free MurmurHash3 x64 128 bit hashing of primitive keys and byte buffers.
+ * <p>
+ * The results are identical to {@code Hashing.murmur3_128().hashLong(key)}, {@link #hash1(long)} returning the
+ * lower eight bytes, and {@link #hash2(long)} the upper eight bytes, but without allocating a {@code HashCode}.
+ * Likewise {@link #hash128(ByteBuffer, long[], int)} matches {@code hashBytes} over the buffer contents, and
+ * {@link #hash128(long, long, long[], int)} matches it over a sixteen byte key without a buffer.
+ * <p>
+ * The two halves share most of their work, callers needing both should call them one after the other so the JIT
+ * can merge the common expressions.
+ */
+public final class Murmur3 {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private Murmur3() {
+    }
+
+    /**
+     * @return the lower 64 bits of the 128 bit hash of the little endian bytes of the given key
+     */
+    public static long hash1(long key) {
+        long h1 = mixH1(key);
+        long h2 = h1 + Long.BYTES;
+
+        return fmix64(h1) + fmix64(h2);
+    }
+
+    /**
+     * @return the upper 64 bits of the 128 bit hash of the little endian bytes of the given key
+     */
+    public static long hash2(long key) {
+        long h1 = mixH1(key);
+        long h2 = h1 + Long.BYTES;
+
+        return fmix64(h1) + 2 * fmix64(h2);
+    }
+
+    /**
+     * Hashes the bytes from zero to the limit of the given buffer, regardless of its position, which is not
+     * changed.
+     *
+     * @param result receives the lower 64 bits at {@code offset} and the upper 64 bits at {@code offset + 1}
+     */
+    public static void hash128(ByteBuffer buffer, long[] result, int offset) {
+        int length = buffer.limit();
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        long h1 = 0;
+        long h2 = 0;
+
+        int tail = length & ~15;
+        for (int i = 0; i < tail; i += 16) {
+            long k1 = buffer.getLong(i);
+            long k2 = buffer.getLong(i + 8);
+
+            if (bigEndian) {
+                k1 = Long.reverseBytes(k1);
+                k2 = Long.reverseBytes(k2);
+            }
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+
+        switch (length - tail) {
+            case 15:
+                k2 ^= (long) (buffer.get(tail + 14) & 0xff) << 48;
+            case 14:
+                k2 ^= (long) (buffer.get(tail + 13) & 0xff) << 40;
+            case 13:
+                k2 ^= (long) (buffer.get(tail + 12) & 0xff) << 32;
+            case 12:
+                k2 ^= (long) (buffer.get(tail + 11) & 0xff) << 24;
+            case 11:
+                k2 ^= (long) (buffer.get(tail + 10) & 0xff) << 16;
+            case 10:
+                k2 ^= (long) (buffer.get(tail + 9) & 0xff) << 8;
+            case 9:
+                k2 ^= buffer.get(tail + 8) & 0xff;
+                h2 ^= mixK2(k2);
+            case 8:
+                k1 ^= (long) (buffer.get(tail + 7) & 0xff) << 56;
+            case 7:
+                k1 ^= (long) (buffer.get(tail + 6) & 0xff) << 48;
+            case 6:
+                k1 ^= (long) (buffer.get(tail + 5) & 0xff) << 40;
+            case 5:
+                k1 ^= (long) (buffer.get(tail + 4) & 0xff) << 32;
+            case 4:
+                k1 ^= (long) (buffer.get(tail + 3) & 0xff) << 24;
+            case 3:
+                k1 ^= (long) (buffer.get(tail + 2) & 0xff) << 16;
+            case 2:
+                k1 ^= (long) (buffer.get(tail + 1) & 0xff) << 8;
+            case 1:
+                k1 ^= buffer.get(tail) & 0xff;
+                h1 ^= mixK1(k1);
+            default:
+                break;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+
+        h1 += h2;
+        h2 += h1;
+
+        result[offset] = h1;
+        result[offset + 1] = h2;
+    }
+
+    /**
+     * Hashes a sixteen byte key, such as a UUID, held as two longs, the same as
+     * {@link #hash128(ByteBuffer, long[], int)} over a big endian buffer holding {@code high} then {@code low}.
+     *
+     * @param result receives the lower 64 bits at {@code offset} and the upper 64 bits at {@code offset + 1}
+     */
+    public static void hash128(long high, long low, long[] result, int offset) {
+        // one full block, the little endian words of the big endian bytes
+        long h1 = mixK1(Long.reverseBytes(high));
+        h1 = Long.rotateLeft(h1, 27);
+        h1 = h1 * 5 + 0x52dce729;
+
+        long h2 = mixK2(Long.reverseBytes(low));
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+
+        h1 ^= 2 * Long.BYTES;
+        h2 ^= 2 * Long.BYTES;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+
+        h1 += h2;
+        h2 += h1;
+
+        result[offset] = h1;
+        result[offset + 1] = h2;
+    }
+
+    /**
+     * The state of h1 after the tail and length of an eight byte input, seed zero, where h2 is just the length.
+     */
+    private static long mixH1(long key) {
+        return (mixK1(key) ^ Long.BYTES) + Long.BYTES;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+
+        return k2;
+    }
+
+    public static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+
+        return k;
+    }
+}
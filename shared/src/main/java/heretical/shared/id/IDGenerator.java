@@ -1,3 +1,3 @@
-public interface IDGenerator {
-    
+public interface IDGenerator<T> {
+    T next();
 }
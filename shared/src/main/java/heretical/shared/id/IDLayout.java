@@ -0,0 +1,268 @@
+/**
+ * The split of the 64 bits of a {@link SerialTaskIDGenerator} id between time, sequence, and task id, and the epoch
+ * time is counted from.
+ * <p>
+ * From the left, an id holds 'time - epoch', then the sequence, then the task id. More sequence bits allow more ids
+ * per millisecond per task before a rollover, more task bits make random task id collisions less likely, and both
+ * shorten the time range, see {@link #printStats()}. Once the time range is used up the time bits wrap, ids no
+ * longer sort by time across the wrap, and an id only decodes to its time if less than a range old, so pick an epoch
+ * and time bits that cover the life of the ids.
+ * <p>
+ * {@link #DEFAULT} is 7 sequence bits, 22 task bits, and the remaining 35 bits of time from
+ * {@link SerialTaskIDGenerator#EPOCH}.
+ */
+public final class IDLayout {
+    /**
+     * Over four million ids per millisecond, a generator holds its last timestamp in the remaining 42 bits, so for
+     * more than a century, however the time bits of an id wrap.
+     */
+    public static final int MAX_SEQUENCE_BITS = 22;
+    public static final IDLayout DEFAULT = builder().build();
+
+    private final int sequenceBits;
+    private final int taskIdBits;
+    private final int timeBits;
+    private final long epoch;
+
+    private final int sequenceLeftShift;
+    private final int timestampLeftShift;
+    private final long timeMask;
+    private final long sequenceMask;
+    private final long taskMask;
+
+    private IDLayout(int sequenceBits, int taskIdBits, int timeBits, long epoch) {
+        this.sequenceBits = sequenceBits;
+        this.taskIdBits = taskIdBits;
+        this.timeBits = timeBits;
+        this.epoch = epoch;
+        this.sequenceLeftShift = taskIdBits;
+        this.timestampLeftShift = sequenceBits + taskIdBits;
+        this.timeMask = ~(-1L << timeBits);
+        this.sequenceMask = ~(-1L << sequenceBits);
+        this.taskMask = ~(-1L << taskIdBits);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getSequenceBits() {
+        return sequenceBits;
+    }
+
+    public int getTaskIdBits() {
+        return taskIdBits;
+    }
+
+    public int getTimeBits() {
+        return timeBits;
+    }
+
+    /**
+     * @return the epoch in milliseconds, the time of the smallest timestamp
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int getSequenceLeftShift() {
+        return sequenceLeftShift;
+    }
+
+    public int getTimestampLeftShift() {
+        return timestampLeftShift;
+    }
+
+    public long getTimeMask() {
+        return timeMask;
+    }
+
+    public long getSequenceMask() {
+        return sequenceMask;
+    }
+
+    public long getTaskMask() {
+        return taskMask;
+    }
+
+    /**
+     * Decodes the time of an id against the system clock, see {@link #timestampOf(long, long)}.
+     */
+    public long timestampOf(long id) {
+        return timestampOf(id, System.currentTimeMillis());
+    }
+
+    /**
+     * The time bits only hold the time since the epoch modulo the time range, so the id is taken to be from the latest
+     * wrap of the range not after {@code now}. Ids older than one time range decode a whole number of ranges late, and
+     * ids borrowed ahead of {@code now} a range early, unless {@code now} is moved forward by the max borrow.
+     *
+     * @param now the time in milliseconds the id was generated at or before
+     * @return the time in milliseconds the id was generated in
+     */
+    public long timestampOf(long id, long now) {
+        long time = (id >>> timestampLeftShift) & timeMask;
+        long elapsed = now - epoch;
+
+        // no earlier wrap, before the epoch no id can be generated
+        if (elapsed < time) {
+            return epoch + time;
+        }
+
+        return now - ((elapsed - time) & timeMask);
+    }
+
+    public long sequenceOf(long id) {
+        return (id >>> sequenceLeftShift) & sequenceMask;
+    }
+
+    public long taskIdOf(long id) {
+        return id & taskMask;
+    }
+
+    /**
+     * The id holds the time bits of the given time, so every wrap of the time range shares it.
+     *
+     * @return the smallest id generated in the millisecond of the given time, or at the same point of another wrap
+     * @throws IllegalArgumentException if the time is before the epoch
+     */
+    public long minIdFor(long millis) {
+        if (millis < epoch) {
+            throw new IllegalArgumentException("time before the epoch of the layout, millis: " + millis + ", epoch: " + epoch);
+        }
+
+        return ((millis - epoch) & timeMask) << timestampLeftShift;
+    }
+
+    /**
+     * Ids between {@code minIdFor(start)} and {@code maxIdFor(end)}, inclusive, were generated between the two times,
+     * if the two are less than a time range apart, and ids from earlier wraps are known not to be present. If a wrap
+     * falls between them, {@code maxIdFor(end)} is below {@code minIdFor(start)}, and the ids in between are those
+     * from {@code minIdFor(start)} up, and those up to {@code maxIdFor(end)}. When the time bits reach the sign bit,
+     * compare ids unsigned.
+     *
+     * @return the largest id generated in the millisecond of the given time, or at the same point of another wrap
+     * @throws IllegalArgumentException if the time is before the epoch
+     */
+    public long maxIdFor(long millis) {
+        return minIdFor(millis) | sequenceMask << sequenceLeftShift | taskMask;
+    }
+
+    public long minIdFor(Instant instant) {
+        return minIdFor(instant.toEpochMilli());
+    }
+
+    public long maxIdFor(Instant instant) {
+        return maxIdFor(instant.toEpochMilli());
+    }
+
+    public String printStats() {
+        long days = Duration.ofMillis(timeMask).toDays();
+        long remaining = Duration.ofMillis(timeMask - ((System.currentTimeMillis() - epoch) & timeMask)).toDays();
+        double p50 = Math.sqrt(taskMask);
+        double p10 = Math.sqrt(2 * taskMask * .1);
+        double p01 = Math.sqrt(2 * taskMask * .01);
+        double p001 = Math.sqrt(2 * taskMask * .001);
+        return format("max time: %d, days: %d (remaining: %d), years: %d (remaining: %d)\n", timeMask, days, remaining, days / 365, remaining / 365) +
+                format("max seq: %d, ids per second per task: %d\n", sequenceMask, (sequenceMask + 1) * 1000) +
+                format("max task: %d, random collision prob: 50%%: %f, 10%% %f, 1%%: %f, .1%%: %f\n", taskMask, p50, p10, p01, p001);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        IDLayout idLayout = (IDLayout) o;
+        return sequenceBits == idLayout.sequenceBits && taskIdBits == idLayout.taskIdBits && timeBits == idLayout.timeBits && epoch == idLayout.epoch;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sequenceBits, taskIdBits, timeBits, epoch);
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", IDLayout.class.getSimpleName() + "[", "]")
+                .add("sequenceBits=" + sequenceBits)
+                .add("taskIdBits=" + taskIdBits)
+                .add("timeBits=" + timeBits)
+                .add("epoch=" + epoch)
+                .toString();
+    }
+
+    /**
+     * Time takes the bits not given to the sequence and task id, unless set.
+     */
+    public static class Builder {
+        private int sequenceBits = 7;
+        private int taskIdBits = 22;
+        private int timeBits = -1;
+        private long epoch = SerialTaskIDGenerator.EPOCH;
+
+        private Builder() {
+        }
+
+        public Builder sequenceBits(int sequenceBits) {
+            this.sequenceBits = sequenceBits;
+            return this;
+        }
+
+        public Builder taskIdBits(int taskIdBits) {
+            this.taskIdBits = taskIdBits;
+            return this;
+        }
+
+        /**
+         * Fewer time bits than remain leave the top bits of ids clear, so ids stay positive, even once time wraps.
+         */
+        public Builder timeBits(int timeBits) {
+            this.timeBits = timeBits;
+            return this;
+        }
+
+        /**
+         * @param epoch the time in milliseconds of the smallest timestamp, ids can not be generated before it
+         */
+        public Builder epoch(long epoch) {
+            this.epoch = epoch;
+            return this;
+        }
+
+        public Builder epoch(Instant epoch) {
+            return epoch(epoch.toEpochMilli());
+        }
+
+        /**
+         * @throws IllegalArgumentException if the bits are out of range, or together take more than 64 bits
+         */
+        public IDLayout build() {
+            if (sequenceBits < 1 || sequenceBits > MAX_SEQUENCE_BITS) {
+                throw new IllegalArgumentException("sequenceBits must be between 1 and " + MAX_SEQUENCE_BITS + ", got: " + sequenceBits);
+            }
+
+            if (taskIdBits < 0 || taskIdBits > 62) {
+                throw new IllegalArgumentException("taskIdBits must be between 0 and 62, got: " + taskIdBits);
+            }
+
+            int remaining = Long.SIZE - sequenceBits - taskIdBits;
+            int time = timeBits == -1 ? remaining : timeBits;
+
+            if (time < 1 || time > remaining) {
+                throw new IllegalArgumentException("timeBits must be between 1 and " + remaining + ", the bits not given to the sequence and task id, got: " + time);
+            }
+
+            if (epoch < 0) {
+                throw new IllegalArgumentException("epoch must not be negative, got: " + epoch);
+            }
+
+            return new IDLayout(sequenceBits, taskIdBits, time, epoch);
+        }
+    }
+}
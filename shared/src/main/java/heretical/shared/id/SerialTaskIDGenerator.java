@@ -1,6 +1,6 @@
 
 /**
- * Generate a long id that is a composite based on
+ * Generate a long id that is a composite based on, with the {@link IDLayout#DEFAULT} layout
  * <p>
  * max time: 34359738367, days: 397 (remaining: 395), years: 1 (remaining: 1)
  * max seq: 127
@@ -21,36 +21,125 @@
  * <p>
  * reversing the order and then the bytes is an option, but hadoop raw comparators still deserialize longs into primitives
  * for comparison, not against byte arrays.
+ * <p>
+ * This class is thread safe and lock free. The last timestamp and sequence are packed into one atomic word, and
+ * advanced with a compare-and-swap, so threads sharing an instance, and so a task id, never see the same id. The word
+ * holds the timestamp relative to a clock reading taken when the generator is created, not to the epoch, so it never
+ * overflows, and is only moved to the epoch, and wrapped to the time bits, when made into an id.
+ * <p>
+ * The split of the bits and the epoch can be changed with an {@link IDLayout}, fixed for the life of a generator.
+ * <p>
+ * What happens when the sequence of a millisecond is exhausted is set by {@link #setRolloverPolicy(RolloverPolicy)},
+ * and what happens when the clock steps backwards by {@link #setClockRegressionPolicy(ClockRegressionPolicy)}. Both
+ * are read only off the fast path.
  */
 
  public class SerialTaskIDGenerator  implements IDGenerator<Long> {
     private static final Logger LOG = LoggerFactory.getLogger(SerialTaskIDGenerator.class);
 
     public static final long EPOCH = 1624297628069L;
+    public static final long DEFAULT_MAX_BORROW_MILLIS = 10;
+
+    /**
+     * How a caller waits once the sequence of the current millisecond is exhausted.
+     */
+    public enum RolloverPolicy {
+        /**
+         * Busy waits on the clock for the next millisecond, the lowest latency, but burns a core while waiting.
+         */
+        SPIN,
+        /**
+         * Yields the processor between reads of the clock.
+         */
+        YIELD,
+        /**
+         * Parks the thread until the next millisecond is due.
+         */
+        PARK,
+        /**
+         * Takes ids from the next millisecond without waiting, so timestamps may run ahead of the clock, by no more
+         * than the max borrow, after which callers park as with {@link #PARK}. Timestamps in ids then only
+         * approximate the time they were generated.
+         */
+        BORROW
+    }
 
-    long sequenceBits = 7L;
-    long taskIdBits = 22L;
-    long timeBits = Long.SIZE - sequenceBits - taskIdBits;
+    /**
+     * What happens when the clock reads earlier than the last timestamp used, say after an NTP correction.
+     */
+    public enum ClockRegressionPolicy {
+        /**
+         * Throws an {@link IllegalStateException}.
+         */
+        FAIL,
+        /**
+         * Keeps using the last timestamp until the clock catches up, ids stay unique and increasing, but a burst
+         * while held waits on the rollover policy.
+         */
+        HOLD
+    }
+
+    final IDLayout layout;
+    final long epoch;
+    final long sequenceBits;
+    final long taskIdBits;
+    final long timeBits;
+
+    final long sequenceLeftShift;
+    final long timestampLeftShift;
+    final long timeMask;
+    final long sequenceMask;
+    final long taskMask;
+    // wraps the time bits
+    final long idMask;
+    // the clock just before the first id, so the state holds a small offset from it and never overflows
+    final long base;
+    // 'base - epoch', in place in an id
+    final long baseOffset;
 
-    long sequenceLeftShift = taskIdBits;
-    long timestampLeftShift = sequenceBits + taskIdBits;
-    long timeMask = ~(-1L << timeBits);
-    long sequenceMask = ~(-1L << sequenceBits);
-    long taskMask = ~(-1L << taskIdBits);
+    final Clock clock;
+    final LongAdder tickCount = new LongAdder();
+    final long taskId;
+    // 'lastTimestamp - base' + 'sequence'
+    final AtomicLong state = new AtomicLong();
+    final LongAdder regressionCount = new LongAdder();
 
-    Clock clock;
-    long tickCount = 0;
-    long taskId;
-    long lastTimestamp = 0L;
-    long sequence = 0;
+    volatile RolloverPolicy rolloverPolicy = RolloverPolicy.SPIN;
+    volatile long maxBorrowMillis = DEFAULT_MAX_BORROW_MILLIS;
+    volatile ClockRegressionPolicy clockRegressionPolicy = ClockRegressionPolicy.FAIL;
 
     public SerialTaskIDGenerator(long taskId) {
         this(Clock.systemUTC(), taskId);
     }
 
     public SerialTaskIDGenerator(Clock clock, long taskId) {
+        this(IDLayout.DEFAULT, clock, taskId);
+    }
+
+    public SerialTaskIDGenerator(IDLayout layout, long taskId) {
+        this(layout, Clock.systemUTC(), taskId);
+    }
+
+    public SerialTaskIDGenerator(IDLayout layout, Clock clock, long taskId) {
+        this.layout = Objects.requireNonNull(layout, "layout");
+        this.epoch = layout.getEpoch();
+        this.sequenceBits = layout.getSequenceBits();
+        this.taskIdBits = layout.getTaskIdBits();
+        this.timeBits = layout.getTimeBits();
+        this.sequenceLeftShift = layout.getSequenceLeftShift();
+        this.timestampLeftShift = layout.getTimestampLeftShift();
+        this.timeMask = layout.getTimeMask();
+        this.sequenceMask = layout.getSequenceMask();
+        this.taskMask = layout.getTaskMask();
+        this.idMask = timeMask << timestampLeftShift | sequenceMask << sequenceLeftShift | taskMask;
         this.clock = clock;
         this.taskId = taskId & taskMask;
+        this.base = clock.millis() - 1;
+        this.baseOffset = (base - epoch) << timestampLeftShift;
+    }
+
+    public IDLayout getLayout() {
+        return layout;
     }
 
     public long getSequenceBits() {
@@ -81,65 +170,256 @@
         return taskMask;
     }
 
+    /**
+     * Decodes an id of the {@link IDLayout#DEFAULT} layout against the system clock, see
+     * {@link IDLayout#timestampOf(long, long)}, and the layout itself for other layouts.
+     */
+    public static long timestampOf(long id) {
+        return IDLayout.DEFAULT.timestampOf(id);
+    }
+
+    /**
+     * @see IDLayout#timestampOf(long, long)
+     */
+    public static long timestampOf(long id, long now) {
+        return IDLayout.DEFAULT.timestampOf(id, now);
+    }
+
+    public static long sequenceOf(long id) {
+        return IDLayout.DEFAULT.sequenceOf(id);
+    }
+
+    public static long taskIdOf(long id) {
+        return IDLayout.DEFAULT.taskIdOf(id);
+    }
+
+    /**
+     * Wraps with the time range of the {@link IDLayout#DEFAULT} layout.
+     *
+     * @see IDLayout#minIdFor(long)
+     */
+    public static long minIdFor(Instant instant) {
+        return IDLayout.DEFAULT.minIdFor(instant);
+    }
+
+    /**
+     * Wraps with the time range of the {@link IDLayout#DEFAULT} layout.
+     *
+     * @see IDLayout#maxIdFor(long)
+     */
+    public static long maxIdFor(Instant instant) {
+        return IDLayout.DEFAULT.maxIdFor(instant);
+    }
+
+    public RolloverPolicy getRolloverPolicy() {
+        return rolloverPolicy;
+    }
+
+    public long getMaxBorrowMillis() {
+        return maxBorrowMillis;
+    }
+
+    /**
+     * Sets the rollover policy, {@link RolloverPolicy#SPIN} by default, borrowing at most
+     * {@link #DEFAULT_MAX_BORROW_MILLIS}.
+     */
+    public void setRolloverPolicy(RolloverPolicy policy) {
+        setRolloverPolicy(policy, DEFAULT_MAX_BORROW_MILLIS);
+    }
+
+    /**
+     * @param maxBorrowMillis how far timestamps may run ahead of the clock, only used by {@link RolloverPolicy#BORROW}
+     */
+    public void setRolloverPolicy(RolloverPolicy policy, long maxBorrowMillis) {
+        if (maxBorrowMillis < 1) {
+            throw new IllegalArgumentException("maxBorrowMillis must be at least 1, got: " + maxBorrowMillis);
+        }
+
+        this.maxBorrowMillis = maxBorrowMillis;
+        this.rolloverPolicy = Objects.requireNonNull(policy, "policy");
+    }
+
+    public ClockRegressionPolicy getClockRegressionPolicy() {
+        return clockRegressionPolicy;
+    }
+
+    /**
+     * Sets the clock regression policy, {@link ClockRegressionPolicy#FAIL} by default.
+     * <p>
+     * When borrowing, the clock reading up to the max borrow behind the last timestamp is expected, and is held
+     * whatever the policy.
+     */
+    public void setClockRegressionPolicy(ClockRegressionPolicy policy) {
+        this.clockRegressionPolicy = Objects.requireNonNull(policy, "policy");
+    }
+
+    /**
+     * @return the number of times the clock was seen behind the last timestamp, and held
+     */
+    public long getRegressionCount() {
+        return regressionCount.sum();
+    }
+
+    /**
+     * Boxes {@link #nextLong()}, prefer it on hot paths.
+     */
     @Override
     public Long next() {
-        long timestamp = clock.millis();
+        return nextLong();
+    }
 
-        if (timestamp < lastTimestamp) {
-            throw new IllegalStateException("system clock went backwards");
+    public long nextLong() {
+        return idOf(reserve(1));
+    }
+
+    /**
+     * Fills {@code dest} from {@code offset} with {@code count} ids, reserving a run of sequence numbers with one clock
+     * read and one compare-and-swap per millisecond spanned, the ids are increasing.
+     */
+    public void next(long[] dest, int offset, int count) {
+        Objects.checkFromIndexSize(offset, count, dest.length);
+
+        while (count > 0) {
+            long first = reserve(count);
+            int reserved = reserved(first, count);
+
+            for (int i = 0; i < reserved; i++) {
+                dest[offset + i] = idOf(first + i);
+            }
+
+            offset += reserved;
+            count -= reserved;
         }
+    }
+
+    /**
+     * Reserves up to {@code count} consecutive states within one millisecond, see {@link #reserved(long, int)}.
+     *
+     * @return the first state reserved
+     */
+    private long reserve(int count) {
+        while (true) {
+            long current = state.get();
+            long lastTimestamp = (current >>> sequenceBits) + base;
+            // read after the state, so never before a timestamp another thread has stored
+            long now = clock.millis();
+            long timestamp = now < lastTimestamp ? regressed(now, lastTimestamp) : now;
 
-        if (lastTimestamp == timestamp) {
-            sequence = (sequence + 1) & sequenceMask;
-            if (sequence == 0) {
-                timestamp = nextTick(lastTimestamp);
+            long first;
+
+            if (lastTimestamp == timestamp) {
+                if ((current & sequenceMask) != sequenceMask) {
+                    first = current + 1;
+                } else if (rolloverPolicy == RolloverPolicy.BORROW && lastTimestamp + 1 - now <= maxBorrowMillis) {
+                    first = firstOf(lastTimestamp + 1);
+                } else {
+                    nextTick(lastTimestamp);
+                    continue;
+                }
+            } else {
+                first = firstOf(timestamp);
             }
-        } else {
-            sequence = 0;
+
+            if (state.compareAndSet(current, first + reserved(first, count) - 1)) {
+                return first;
+            }
+        }
+    }
+
+    /**
+     * @return the state of the first id in the given millisecond
+     * @throws IllegalStateException if the timestamp is before the epoch of the layout, or too far past the base for
+     *                               the state to hold
+     */
+    private long firstOf(long timestamp) {
+        if (timestamp < epoch) {
+            throw new IllegalStateException("timestamp before the epoch of the layout, timestamp: " + timestamp + ", layout: " + layout);
         }
 
-        lastTimestamp = timestamp;
+        if (timestamp - base > -1L >>> sequenceBits) {
+            throw new IllegalStateException("timestamp too far past the first id to hold, timestamp: " + timestamp + ", base: " + base + ", layout: " + layout);
+        }
+
+        return (timestamp - base) << sequenceBits;
+    }
+
+    /**
+     * Moves the state from the base to the epoch, wrapping the time bits to the layout.
+     */
+    private long idOf(long state) {
+        return ((state << sequenceLeftShift) + baseOffset & idMask) | taskId;
+    }
 
-        long timestampEpoch = (timestamp - EPOCH);
-        long timestampShifted = (timestampEpoch << timestampLeftShift);
-        long sequenceShifted = sequence << sequenceLeftShift;
+    /**
+     * @return the number of the {@code count} states wanted left in the millisecond of the first
+     */
+    private int reserved(long first, int count) {
+        return (int) Math.min(count, sequenceMask - (first & sequenceMask) + 1);
+    }
+
+    /**
+     * @return the timestamp to use in place of the clock, behind the last timestamp
+     * @throws IllegalStateException if the policy is {@link ClockRegressionPolicy#FAIL}, and the clock is not
+     *                               within a borrow
+     */
+    private long regressed(long now, long lastTimestamp) {
+        boolean borrowed = rolloverPolicy == RolloverPolicy.BORROW && lastTimestamp - now <= maxBorrowMillis;
 
-        long result = timestampShifted | sequenceShifted | taskId;
+        if (borrowed) {
+            return lastTimestamp;
+        }
 
-        if (false) {
-            System.out.println("timestamp = " + Long.toHexString(timestampShifted));
-            System.out.println("sequence = " + Long.toHexString(sequenceShifted));
-            System.out.println("task = " + Long.toHexString(taskId));
-            System.out.println("result = " + Long.toHexString(result));
+        if (clockRegressionPolicy == ClockRegressionPolicy.FAIL) {
+            throw new IllegalStateException("system clock went backwards, by millis: " + (lastTimestamp - now));
         }
 
-        return result;
+        regressionCount.increment();
+
+        if (regressionCount.sum() % 1000 == 1) {
+            LOG.warn("system clock went backwards, holding the last timestamp, by millis: {}, num holds: {}", lastTimestamp - now, regressionCount.sum());
+        }
+
+        return lastTimestamp;
     }
 
+    /**
+     * Waits, per the rollover policy, until the clock passes the given timestamp.
+     */
     protected long nextTick(long lastTimestamp) {
-        try {
-            long timestamp = clock.millis();
-            while (timestamp <= lastTimestamp) {
-                timestamp = clock.millis();
-            }
-            return timestamp;
-        } finally {
-            if (tickCount++ % 1000 == 0) {
-                LOG.warn("sequence id has rolled over forcing a delay until the next tick, max sequence: {}, num delays: {}", sequenceMask, tickCount);
+        RolloverPolicy policy = rolloverPolicy;
+        long timestamp = clock.millis();
+
+        while (timestamp <= lastTimestamp) {
+            switch (policy) {
+                case SPIN:
+                    Thread.onSpinWait();
+                    break;
+                case YIELD:
+                    Thread.yield();
+                    break;
+                case PARK:
+                case BORROW:
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(lastTimestamp + 1 - timestamp));
+                    break;
             }
+
+            timestamp = clock.millis();
         }
+
+        tickCount.increment();
+
+        if (tickCount.sum() % 1000 == 1) {
+            LOG.warn("sequence id has rolled over forcing a delay until the next tick, max sequence: {}, num delays: {}", sequenceMask, tickCount.sum());
+        }
+
+        return timestamp;
     }
 
+    /**
+     * @see IDLayout#printStats()
+     */
     public String printStats() {
-        long days = Duration.ofMillis(timeMask).toDays();
-        long remaining = Duration.ofMillis(timeMask - ((System.currentTimeMillis() - EPOCH) & timeMask)).toDays();
-        double p50 = Math.sqrt(taskMask);
-        double p10 = Math.sqrt(2 * taskMask * .1);
-        double p01 = Math.sqrt(2 * taskMask * .01);
-        double p001 = Math.sqrt(2 * taskMask * .001);
-        return format("max time: %d, days: %d (remaining: %d), years: %d (remaining: %d)\n", timeMask, days, remaining, days / 365, remaining / 365) +
-                format("max seq: %d\n", sequenceMask) +
-                format("max task: %d, random collision prob: 50%%: %f, 10%% %f, 1%%: %f, .1%%: %f\n", taskMask, p50, p10, p01, p001);
+        return layout.printStats();
     }
     
 }
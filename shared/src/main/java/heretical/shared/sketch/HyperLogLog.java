@@ -0,0 +1,195 @@
+/**
+ * A HyperLogLog distinct count sketch, Flajolet et al. "HyperLogLog: the analysis of a near-optimal cardinality
+ * estimation algorithm", 2007, with linear counting for small counts.
+ * <p>
+ * Keys are hashed with the same murmur3 as the bloom filters, a 64 bit hash needs no large range correction. The
+ * sketch holds {@code 2^precision} one byte registers, and the relative standard error of the estimate is
+ * {@code 1.04 / sqrt(2^precision)}, 0.8% at the default precision of 14 in 16KB.
+ * <p>
+ * Sketches of the same precision may be merged, the result is the sketch of the union of their keys, so a sketch may
+ * be built per partition or per run and combined later. {@link #toBytes()} and {@link #fromBytes(byte[])} give a
+ * compact binary form for saving a sketch between runs.
+ * <p>
+ * This class is not thread safe.
+ */
+public class HyperLogLog {
+    public static final int DEFAULT_PRECISION = 14;
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+    private static final int FORMAT_MAGIC = 0x484C4C31; // HLL1
+    // magic, precision
+    private static final int FORMAT_HEADER_BYTES = 4 + 4;
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision the number of hash bits used to select a register, between 4 and 18
+     */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION + ", got: " + precision);
+        }
+
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Reads a sketch written by {@link #toBytes()}.
+     *
+     * @throws IllegalArgumentException if the bytes are not a sketch
+     */
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (bytes.length < FORMAT_HEADER_BYTES || buffer.getInt() != FORMAT_MAGIC) {
+            throw new IllegalArgumentException("not a hyperloglog sketch");
+        }
+
+        int precision = buffer.getInt();
+
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION || buffer.remaining() != 1 << precision) {
+            throw new IllegalArgumentException("corrupt hyperloglog sketch, precision: " + precision + ", registers: " + buffer.remaining());
+        }
+
+        HyperLogLog sketch = new HyperLogLog(precision);
+        buffer.get(sketch.registers);
+
+        return sketch;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return the relative standard error of {@link #estimate()}
+     */
+    public double relativeStandardError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    public void add(ByteBuffer tuple) {
+        long[] hash = new long[2];
+        Murmur3.hash128(tuple, hash, 0);
+
+        addHashed(hash[0]);
+    }
+
+    /**
+     * Note a long key is not equivalent to a {@link ByteBuffer} holding the same bytes, as with the bloom filters.
+     */
+    public void add(long key) {
+        addHashed(Murmur3.hash1(key));
+    }
+
+    public void add(int key) {
+        add((long) key);
+    }
+
+    private void addHashed(long hash) {
+        int index = (int) (hash >>> (Long.SIZE - precision));
+        // the guard bit caps the rank when the remaining bits are all zero
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct keys added
+     */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+
+        for (byte register : registers) {
+            sum += Math.scalb(1.0, -register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+
+        int m = registers.length;
+        double estimate = alpha(m) * m * m / sum;
+
+        if (estimate <= 2.5 * m && zeros != 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+
+        return Math.round(estimate);
+    }
+
+    /**
+     * @param deviations the number of standard errors to add, 3 is exceeded by about one estimate in a thousand
+     * @return an estimate unlikely to be below the true distinct count
+     */
+    public long estimateUpperBound(double deviations) {
+        return (long) Math.ceil(estimate() * (1 + deviations * relativeStandardError()));
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    /**
+     * Adds every key counted by the given sketch to this sketch, the given sketch is unchanged.
+     *
+     * @throws IllegalArgumentException if the sketches differ in precision
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("sketches are not compatible, precision: " + precision + ", other: " + other.precision);
+        }
+
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        for (byte register : registers) {
+            if (register != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the sketch as a little endian magic number and precision, followed by one byte per register
+     */
+    public byte[] toBytes() {
+        return ByteBuffer.allocate(FORMAT_HEADER_BYTES + registers.length)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(FORMAT_MAGIC)
+                .putInt(precision)
+                .put(registers)
+                .array();
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", HyperLogLog.class.getSimpleName() + "[", "]")
+                .add("precision=" + precision)
+                .add("estimate=" + estimate())
+                .toString();
+    }
+}
@@ -0,0 +1,38 @@
+public class BinaryFuseFilterTest {
+    @Test
+    public void build() {
+        long[] keys = new Random(1).longs(1_000_000).toArray();
+        ReadOnlyMembershipFilter filter = BinaryFuseFilter.build(keys);
+
+        for (long key : keys) {
+            assertTrue(filter.mightContain(key));
+        }
+
+        int falsePositives = 0;
+        int trials = 10_000_000;
+        for (long i = 0; i < trials; i++) {
+            falsePositives += filter.mightContain(i) ? 1 : 0;
+        }
+
+        assertEquals(1.0 / 65536, (double) falsePositives / trials, 1.0 / 65536 * 0.2);
+
+        // about 18 bits per key
+        assertTrue(((BinaryFuseFilter) filter).sizeInBytes() * 8.0 / keys.length < 18.5);
+    }
+
+    @Test
+    public void buildSmallAndDuplicates() {
+        for (int size : new int[]{0, 1, 2, 3, 10, 100, 1_000}) {
+            ByteBuffer[] tuples = new ByteBuffer[size * 2];
+            for (int i = 0; i < tuples.length; i++) {
+                tuples[i] = ByteBuffer.allocate(Long.BYTES).putLong(0, i % Math.max(1, size));
+            }
+
+            BinaryFuseFilter filter = BinaryFuseFilter.build(tuples);
+
+            for (ByteBuffer tuple : tuples) {
+                assertTrue(filter.mightContain(tuple));
+            }
+        }
+    }
+}
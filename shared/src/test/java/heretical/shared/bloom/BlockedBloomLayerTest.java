@@ -0,0 +1,48 @@
+public class BlockedBloomLayerTest {
+    @Test
+    public void modelMatchesLayer() {
+        double fpp = 0.001;
+        BloomLayer layer = BlockedBloomLayer.create(100_000, fpp, ScalableBloomFilter.Storage.HEAP);
+
+        assertEquals(0, layer.bitSize() % BlockedBloomLayer.BLOCK_BITS);
+
+        for (long i = 0; i < 100_000; i++) {
+            layer.put(Murmur3.hash1(i), Murmur3.hash2(i));
+        }
+
+        int trials = 2_000_000;
+        int falsePositives = 0;
+        for (long i = 100_000; i < 100_000 + trials; i++) {
+            falsePositives += layer.mightContain(Murmur3.hash1(i), Murmur3.hash2(i)) ? 1 : 0;
+        }
+
+        double blockedFpp = BlockedBloomLayer.blockedFpp(fpp);
+
+        assertTrue("no penalty modelled: " + blockedFpp, blockedFpp > fpp);
+        assertEquals(blockedFpp, (double) falsePositives / trials, blockedFpp * 0.15);
+    }
+
+    @Test
+    public void falsePositivesWithinTarget() {
+        double fpp = 0.001;
+
+        try (ScalableBloomFilter filter = new ScalableBloomFilter("blocked", ScalableBloomFilter.Rate.MEDIUM, 0.5F, 10_000, fpp, ScalableBloomFilter.Storage.HEAP, ScalableBloomFilter.Layout.BLOCKED)) {
+            for (long i = 0; i < 10_000; i++) {
+                assertFalse(filter.put(i));
+            }
+
+            for (long i = 0; i < 10_000; i++) {
+                assertTrue(filter.mightContain(i));
+            }
+
+            int trials = 1_000_000;
+            int falsePositives = 0;
+            for (long i = 10_000; i < 10_000 + trials; i++) {
+                falsePositives += filter.mightContain(i) ? 1 : 0;
+            }
+
+            // the layer is sized to absorb the blocking penalty
+            assertTrue("too many false positives: " + falsePositives, falsePositives <= trials * fpp * 1.2);
+        }
+    }
+}
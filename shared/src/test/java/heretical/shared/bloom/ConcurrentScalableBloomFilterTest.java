@@ -0,0 +1,94 @@
+public class ConcurrentScalableBloomFilterTest {
+    static final int THREADS = 8;
+    static final int KEYS_PER_THREAD = 50_000;
+
+    private static ByteBuffer key(long value) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(0, value);
+    }
+
+    @Test
+    public void statsWhileScaling() throws Exception {
+        ConcurrentScalableBloomFilter filter = new ConcurrentScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+        AtomicBoolean done = new AtomicBoolean();
+
+        Thread writer = new Thread(() -> {
+            for (long i = 0; i < 200_000; i++) {
+                filter.put(i);
+            }
+
+            done.set(true);
+        });
+
+        writer.start();
+
+        // polled from another thread as layers are added
+        while (!done.get()) {
+            BloomFilterStats stats = filter.stats();
+            assertTrue(stats.getLayerCount() >= 1);
+        }
+
+        writer.join();
+
+        BloomFilterStats stats = filter.stats();
+        assertEquals(filter.size(), stats.getLayerCount());
+        assertEquals(filter.getInsertCount(), stats.getInsertCount());
+    }
+
+    @Test
+    public void concurrentPut() throws Exception {
+        ConcurrentScalableBloomFilter filter = new ConcurrentScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+
+            for (int t = 0; t < THREADS; t++) {
+                long start = (long) t * KEYS_PER_THREAD;
+                futures.add(executor.submit(() -> {
+                    int duplicates = 0;
+                    for (long i = start; i < start + KEYS_PER_THREAD; i++) {
+                        duplicates += filter.put(key(i)) ? 1 : 0;
+                    }
+                    return duplicates;
+                }));
+            }
+
+            int duplicates = 0;
+            for (Future<Integer> future : futures) {
+                duplicates += future.get();
+            }
+
+            assertEquals(THREADS * KEYS_PER_THREAD, filter.getInsertCount() + duplicates);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue("filter did not scale", filter.size() > 1);
+
+        for (long i = 0; i < THREADS * KEYS_PER_THREAD; i++) {
+            assertTrue(filter.mightContain(key(i)));
+        }
+
+        int falsePositives = 0;
+        long max = THREADS * KEYS_PER_THREAD;
+        for (long i = max; i < 2 * max; i++) {
+            falsePositives += filter.mightContain(key(i)) ? 1 : 0;
+        }
+
+        assertTrue("too many false positives: " + falsePositives, falsePositives < max * 0.01);
+    }
+
+    @Test
+    public void putReportsDuplicates() {
+        ConcurrentScalableBloomFilter filter = new ConcurrentScalableBloomFilter(ScalableBloomFilter.Rate.FAST, 100, 0.001);
+
+        for (long i = 0; i < 1_000; i++) {
+            filter.put(key(i));
+        }
+
+        for (long i = 0; i < 1_000; i++) {
+            assertTrue(filter.put(key(i)));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+public class CuckooFilterTest {
+    @Test
+    public void putRemove() {
+        CuckooFilter filter = new CuckooFilter(100_000);
+
+        BitSet inserted = new BitSet();
+        for (int i = 0; i < 100_000; i++) {
+            inserted.set(i, !filter.put(i));
+        }
+
+        assertEquals(inserted.cardinality(), filter.getCount());
+
+        for (long i = 0; i < 100_000; i++) {
+            assertTrue(filter.mightContain(i));
+        }
+
+        int falsePositives = 0;
+        for (long i = 100_000; i < 1_100_000; i++) {
+            falsePositives += filter.mightContain(i) ? 1 : 0;
+        }
+
+        assertEquals(filter.expectedFpp(), falsePositives / 1_000_000.0, filter.expectedFpp() * 0.3);
+
+        // only keys that were inserted as new may be removed
+        int removed = 0;
+        for (int i = 0; i < 100_000; i += 2) {
+            if (inserted.get(i)) {
+                assertTrue(filter.remove(i));
+                removed++;
+            }
+        }
+
+        assertEquals(inserted.cardinality() - removed, filter.getCount());
+
+        for (long i = 1; i < 100_000; i += 2) {
+            assertTrue(filter.mightContain(i));
+        }
+
+        int remaining = 0;
+        for (long i = 0; i < 100_000; i += 2) {
+            remaining += filter.mightContain(i) ? 1 : 0;
+        }
+
+        assertTrue("removed keys still present: " + remaining, remaining < 50);
+    }
+
+    @Test
+    public void full() {
+        CuckooFilter filter = new CuckooFilter(1_000, new SplittableRandom(1));
+
+        long key = 0;
+        try {
+            while (true) {
+                filter.put(key++);
+            }
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // fills close to capacity before failing
+        assertTrue("count: " + filter.getCount(), filter.getCount() > filter.capacity() * 0.9);
+
+        for (long i = 0; i < key - 1; i++) {
+            assertTrue(filter.mightContain(i));
+        }
+
+        assertTrue(filter.isFull());
+
+        // the held aside fingerprint is put back once a key is removed, which may displace another in turn
+        assertTrue(filter.remove(0L));
+
+        for (long i = 1; i < key - 1; i++) {
+            assertTrue(filter.mightContain(i));
+        }
+
+        if (!filter.isFull()) {
+            filter.put(-1L);
+            assertTrue(filter.mightContain(-1L));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+public class ExactDedupFilterTest {
+    @Test
+    public void exact() throws IOException {
+        Path directory = Files.createTempDirectory("dedup");
+
+        // a loose bloom filter, so there are plenty of false positives to catch
+        try (ExactDedupFilter filter = new ExactDedupFilter("exact", ScalableBloomFilter.Rate.MEDIUM, 0.5F, 1_000, 0.2, ScalableBloomFilter.Storage.HEAP, 2_000, directory)) {
+            Set<Long> expected = new HashSet<>();
+            Random random = new Random(1);
+
+            for (int i = 0; i < 50_000; i++) {
+                long key = random.nextInt(30_000);
+
+                assertEquals(!expected.add(key), filter.put(key));
+            }
+
+            assertEquals(expected.size(), filter.getInsertCount());
+            assertTrue(filter.getFalsePositiveCount() > 0);
+
+            for (long key = 30_000; key < 40_000; key++) {
+                assertFalse(filter.mightContain(key));
+            }
+
+            for (long key : expected) {
+                assertTrue(filter.mightContain(key));
+            }
+        } finally {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void tuples() throws IOException {
+        Path directory = Files.createTempDirectory("dedup");
+
+        try (ExactDedupFilter filter = new ExactDedupFilter("exact", ScalableBloomFilter.Rate.MEDIUM, 0.5F, 1_000, 0.2, ScalableBloomFilter.Storage.HEAP, 2_000, directory)) {
+            for (int i = 0; i < 20_000; i++) {
+                assertFalse(filter.put(ByteBuffer.wrap(("key" + i).getBytes(StandardCharsets.UTF_8))));
+            }
+
+            for (int i = 0; i < 20_000; i++) {
+                assertTrue(filter.put(ByteBuffer.wrap(("key" + i).getBytes(StandardCharsets.UTF_8))));
+            }
+
+            assertEquals(20_000, filter.getInsertCount());
+        } finally {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void duplicateOnFirstScale() throws IOException {
+        // find the put that adds the second layer, on a twin of the filter the dedup filter builds
+        ScalableBloomFilter twin = new ScalableBloomFilter("scale", ScalableBloomFilter.Rate.MEDIUM, 0.5F, 1_000, 0.01, ScalableBloomFilter.Storage.HEAP);
+        long scaleAt = 0;
+
+        while (twin.size() == 1) {
+            twin.putHashed(Murmur3.hash1(scaleAt), Murmur3.hash2(scaleAt++));
+        }
+
+        Path directory = Files.createTempDirectory("dedup");
+
+        try (ExactDedupFilter filter = new ExactDedupFilter("scale", ScalableBloomFilter.Rate.MEDIUM, 0.5F, 1_000, 0.01, ScalableBloomFilter.Storage.HEAP, 2_000, directory)) {
+            for (long key = 0; key < scaleAt - 1; key++) {
+                filter.put(key);
+            }
+
+            // the first key is only in the layer pushed down by this very put
+            assertTrue(filter.put(0L));
+            assertEquals(scaleAt - 1, filter.getInsertCount());
+        } finally {
+            Files.deleteIfExists(directory);
+        }
+    }
+}
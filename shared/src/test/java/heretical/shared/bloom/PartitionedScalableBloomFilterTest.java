@@ -0,0 +1,45 @@
+public class PartitionedScalableBloomFilterTest {
+    @Test
+    public void falsePositivesWithinTarget() {
+        double fpp = 0.001;
+        PartitionedScalableBloomFilter filter = new PartitionedScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, fpp);
+
+        long[] input = new Random(1).longs(400_000).distinct().toArray();
+        int half = input.length / 2;
+
+        int duplicates = 0;
+        for (int i = 0; i < half; i++) {
+            duplicates += filter.put(input[i]) ? 1 : 0;
+        }
+
+        assertTrue("filter did not scale", filter.size() > 1);
+        assertEquals(half, filter.getInsertCount() + duplicates);
+        assertTrue("compounded fpp: " + filter.compoundedFpp(), filter.compoundedFpp() <= fpp);
+
+        for (int i = 0; i < half; i++) {
+            assertTrue(filter.mightContain(input[i]));
+        }
+
+        int falsePositives = 0;
+        for (int i = half; i < input.length; i++) {
+            falsePositives += filter.mightContain(input[i]) ? 1 : 0;
+        }
+
+        // the bound holds in expectation, allow some sampling noise
+        assertTrue("too many false positives: " + falsePositives, falsePositives <= half * fpp * 1.5);
+    }
+
+    @Test
+    public void sliceProbes() {
+        PartitionedBloomLayer layer = PartitionedBloomLayer.create(1_000, 0.01, ScalableBloomFilter.Storage.HEAP);
+
+        assertEquals(7, layer.numHashFunctions());
+
+        for (long i = 0; i < 1_000; i++) {
+            layer.put(Murmur3.hash1(i), Murmur3.hash2(i));
+        }
+
+        // a half full layer
+        assertEquals(0.5, (double) layer.bitCount() / (layer.sliceBits() * layer.numHashFunctions()), 0.02);
+    }
+}
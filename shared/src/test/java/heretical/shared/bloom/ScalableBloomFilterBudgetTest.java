@@ -0,0 +1,182 @@
+public class ScalableBloomFilterBudgetTest {
+    @Test
+    public void stopGrowing() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(ScalableBloomFilter.Rate.FAST, 10_000, 0.001);
+        long budget = filter.stats().getMemoryBytes() * 3;
+        List<BloomFilterStats> saturated = new ArrayList<>();
+
+        filter.setMemoryBudget(budget, ScalableBloomFilter.SaturationPolicy.STOP_GROWING);
+        filter.setMetrics(new BloomFilterMetrics() {
+            @Override
+            public void onSaturated(BloomFilterStats stats) {
+                saturated.add(stats);
+            }
+        });
+
+        for (long i = 0; i < 100_000; i++) {
+            filter.put(i);
+        }
+
+        // the second layer, four times the first, never fit
+        assertTrue(filter.isSaturated());
+        assertEquals(1, filter.size());
+        assertEquals(1, saturated.size());
+        assertTrue(filter.stats().getMemoryBytes() <= budget);
+
+        // no false negatives, only a higher false positive probability
+        for (long i = 0; i < 100_000; i++) {
+            assertTrue(filter.mightContain(i));
+        }
+
+        assertTrue(filter.expectedFpp()[0] > 0.001);
+    }
+
+    @Test
+    public void stable() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+        long budget = filter.stats().getMemoryBytes() * 8;
+
+        filter.setMemoryBudget(budget, ScalableBloomFilter.SaturationPolicy.STABLE);
+
+        for (long i = 0; i < 1_000_000; i++) {
+            filter.put(i);
+            assertTrue(filter.stats().getMemoryBytes() <= budget);
+        }
+
+        assertTrue(filter.isSaturated());
+        assertTrue(filter.size() > 1);
+
+        // recent keys are held by the newest layers
+        for (long i = 990_000; i < 1_000_000; i++) {
+            assertTrue(filter.mightContain(i));
+        }
+
+        int falsePositives = 0;
+        for (long i = 1_000_000; i < 1_100_000; i++) {
+            if (filter.mightContain(i)) {
+                falsePositives++;
+            }
+        }
+
+        assertTrue(falsePositives < 100_000 * 0.01);
+    }
+
+    @Test
+    public void stableRotatesMidBatch() {
+        for (boolean wide : new boolean[]{false, true}) {
+            ScalableBloomFilter filter = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+            AtomicInteger scales = new AtomicInteger();
+
+            filter.setMemoryBudget(filter.stats().getMemoryBytes() * 8, ScalableBloomFilter.SaturationPolicy.STABLE);
+
+            for (long i = 0; i < 200_000; i++) {
+                filter.put(i);
+            }
+
+            assertTrue(filter.isSaturated());
+
+            filter.setMetrics(new BloomFilterMetrics() {
+                @Override
+                public void onScale(BloomFilterStats stats) {
+                    scales.incrementAndGet();
+                }
+            });
+
+            // enough new keys to fill the head and rotate once, then keys from the start of the batch, now held by
+            // the layer that was the head when the batch began
+            int fresh = (int) (filter.stats().getLayerCapacity(0) * 1.1);
+            int repeated = 1_000;
+            long[] keys = new long[fresh + repeated];
+
+            for (int i = 0; i < fresh; i++) {
+                keys[i] = 1_000_000 + i;
+            }
+
+            System.arraycopy(keys, 0, keys, fresh, repeated);
+
+            long[] contained = wide ? filter.putAll128(interleave(keys)) : filter.putAll(keys);
+
+            assertEquals(1, scales.get());
+
+            for (int i = fresh; i < keys.length; i++) {
+                assertTrue("wide: " + wide + ", index: " + i, (contained[i >>> 6] & (1L << i)) != 0);
+            }
+        }
+    }
+
+    private static long[] interleave(long[] keys) {
+        long[] result = new long[keys.length * 2];
+
+        for (int i = 0; i < keys.length; i++) {
+            result[2 * i + 1] = keys[i];
+        }
+
+        return result;
+    }
+
+    @Test
+    public void failFast() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+
+        filter.setMemoryBudget(filter.stats().getMemoryBytes(), ScalableBloomFilter.SaturationPolicy.FAIL_FAST);
+
+        long inserted = 0;
+        try {
+            for (long i = 0; i < 100_000; i++) {
+                filter.put(i);
+                inserted = filter.getInsertCount();
+            }
+
+            fail("should have saturated");
+        } catch (IllegalStateException exception) {
+            // expected
+        }
+
+        assertTrue(filter.isSaturated());
+        assertEquals(1, filter.size());
+        // the key that did not fit was not inserted
+        assertEquals(inserted, filter.getInsertCount());
+    }
+
+    @Test
+    public void stableKeepsHead() {
+        ScalableBloomFilter sizing = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+
+        for (long i = 0; sizing.size() < 3; i++) {
+            sizing.put(i);
+        }
+
+        // fits three layers exactly, but not two the size of the third
+        long budget = sizing.stats().getMemoryBytes();
+        ScalableBloomFilter filter = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+
+        filter.setMemoryBudget(budget, ScalableBloomFilter.SaturationPolicy.STABLE);
+
+        for (long i = 0; i < 300_000; i++) {
+            filter.put(i);
+        }
+
+        assertTrue(filter.isSaturated());
+        assertEquals(3, filter.size());
+        assertTrue(filter.stats().getMemoryBytes() <= budget);
+
+        // no layer was dropped, so nothing was forgotten
+        for (long i = 0; i < 300_000; i++) {
+            assertTrue(filter.mightContain(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stableBudgetBelowTwoHeads() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+
+        filter.setMemoryBudget(filter.stats().getMemoryBytes() * 2 - 1, ScalableBloomFilter.SaturationPolicy.STABLE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void budgetBelowHeld() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+
+        filter.setMemoryBudget(filter.stats().getMemoryBytes() - 1, ScalableBloomFilter.SaturationPolicy.FAIL_FAST);
+    }
+}
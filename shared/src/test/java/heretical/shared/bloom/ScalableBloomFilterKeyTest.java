@@ -0,0 +1,134 @@
+public class ScalableBloomFilterKeyTest {
+    @Test
+    public void primitiveKeys() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+
+        long[] input = new Random(1).longs(100_000).distinct().toArray();
+        int half = input.length / 2;
+
+        int duplicates = 0;
+        for (int i = 0; i < half; i++) {
+            duplicates += filter.put(input[i]) ? 1 : 0;
+        }
+
+        assertTrue("filter did not scale", filter.size() > 1);
+        assertEquals(half, filter.getInsertCount() + duplicates);
+
+        for (int i = 0; i < half; i++) {
+            assertTrue(filter.mightContain(input[i]));
+            assertTrue(filter.put(input[i]));
+        }
+
+        int falsePositives = 0;
+        for (int i = half; i < input.length; i++) {
+            falsePositives += filter.mightContain(input[i]) ? 1 : 0;
+        }
+
+        assertTrue("too many false positives: " + falsePositives, falsePositives < half * 0.01);
+    }
+
+    @Test
+    public void intKeys() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(ScalableBloomFilter.Rate.FAST, 1_000, 0.001);
+
+        for (int i = -5_000; i < 5_000; i++) {
+            filter.put(i);
+        }
+
+        for (int i = -5_000; i < 5_000; i++) {
+            assertTrue(filter.mightContain(i));
+            assertTrue(filter.mightContain((long) i));
+        }
+    }
+
+    @Test
+    public void batchMatchesSingle() {
+        ScalableBloomFilter single = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 1_000, 0.001);
+        ScalableBloomFilter batch = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 1_000, 0.001);
+
+        // repeat some keys so there are duplicates within and across batches
+        Random random = new Random(1);
+        for (int b = 0; b < 20; b++) {
+            long[] keys = random.longs(2_000, 0, 30_000).toArray();
+            long[] result = batch.putAll(keys);
+
+            for (int i = 0; i < keys.length; i++) {
+                assertEquals(single.put(keys[i]), (result[i >>> 6] & (1L << i)) != 0);
+            }
+
+            assertEquals(single.size(), batch.size());
+            assertEquals(single.getInsertCount(), batch.getInsertCount());
+        }
+
+        assertTrue("filter did not scale", batch.size() > 1);
+
+        long[] keys = LongStream.range(0, 60_000).toArray();
+        long[] result = batch.mightContainAll(keys);
+
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(single.mightContain(keys[i]), (result[i >>> 6] & (1L << i)) != 0);
+        }
+
+        ByteBuffer[] tuples = LongStream.range(0, 100).mapToObj(l -> ByteBuffer.allocate(Long.BYTES).putLong(0, l)).toArray(ByteBuffer[]::new);
+        batch.putAll(tuples);
+        long[] contained = batch.mightContainAll(tuples);
+
+        assertEquals(-1L, contained[0]);
+        assertEquals((1L << 36) - 1, contained[1]);
+    }
+
+    @Test
+    public void batchPartitionedLayer() {
+        PartitionedBloomLayer layer = PartitionedBloomLayer.create(10_000, 0.001, ScalableBloomFilter.Storage.HEAP);
+        Random random = new Random(1);
+        long[] hashes = random.longs(2 * 20_000).toArray();
+
+        // the first half inserted, the second half never inserted
+        for (int i = 0; i < hashes.length / 4; i++) {
+            layer.put(hashes[2 * i], hashes[2 * i + 1]);
+        }
+
+        long[] result = new long[(hashes.length / 2 + Long.SIZE - 1) / Long.SIZE];
+        layer.mightContainAll(hashes, hashes.length / 2, result);
+
+        for (int i = 0; i < hashes.length / 2; i++) {
+            assertEquals(layer.mightContain(hashes[2 * i], hashes[2 * i + 1]), (result[i >>> 6] & (1L << i)) != 0);
+        }
+
+        for (int i = 0; i < hashes.length / 4; i++) {
+            assertTrue((result[i >>> 6] & (1L << i)) != 0);
+        }
+    }
+
+    @Test
+    public void batchSixteenByteKeys() {
+        for (ScalableBloomFilter.Layout layout : ScalableBloomFilter.Layout.values()) {
+            ScalableBloomFilter filter = new ScalableBloomFilter(null, ScalableBloomFilter.Rate.MEDIUM, 0.5F, 1_000, 0.001, ScalableBloomFilter.Storage.HEAP, layout);
+            Random random = new Random(1);
+            long[] keys = random.longs(2 * 10_000).toArray();
+
+            filter.putAll128(keys);
+
+            assertTrue("filter did not scale", filter.size() > 1);
+
+            // inserted keys followed by keys never inserted
+            long[] probes = LongStream.concat(LongStream.of(keys), random.longs(2 * 10_000)).toArray();
+            long[] result = filter.mightContainAll128(probes);
+
+            for (int i = 0; i < probes.length / 2; i++) {
+                ByteBuffer tuple = ByteBuffer.allocate(16).putLong(probes[2 * i]).putLong(probes[2 * i + 1]);
+
+                assertEquals(filter.mightContain(tuple), (result[i >>> 6] & (1L << i)) != 0);
+            }
+
+            for (int i = 0; i < keys.length / 2; i++) {
+                assertTrue((result[i >>> 6] & (1L << i)) != 0);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void batchSixteenByteKeysUnpaired() {
+        new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 1_000, 0.001).mightContainAll128(new long[3]);
+    }
+}
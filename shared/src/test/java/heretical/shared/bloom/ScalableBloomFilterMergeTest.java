@@ -0,0 +1,101 @@
+public class ScalableBloomFilterMergeTest {
+    @Test
+    public void nextLayerAfterMerge() {
+        ScalableBloomFilter reference = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+        ScalableBloomFilter filter = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+        ScalableBloomFilter other = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+
+        for (long i = 0; reference.size() < 3; i++) {
+            reference.put(i);
+        }
+
+        for (long i = 0; i < 25_000; i++) {
+            filter.put(i);
+            other.put(1_000_000 + i);
+        }
+
+        // the full first layers are copied in, growing the layer count but not the growth step of the head
+        filter.merge(other);
+
+        int layers = filter.size();
+        assertTrue(layers > 2);
+
+        for (long i = 2_000_000; filter.size() == layers; i++) {
+            filter.put(i);
+        }
+
+        assertEquals(reference.stats().getLayerBitSize(0), filter.stats().getLayerBitSize(0));
+
+        reference.close();
+        filter.close();
+        other.close();
+    }
+
+    @Test
+    public void mergeMatchesSingle() {
+        ScalableBloomFilter single = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+        ScalableBloomFilter[] tasks = new ScalableBloomFilter[4];
+
+        for (int task = 0; task < tasks.length; task++) {
+            // the last task sees more keys, so has more layers than the others
+            tasks[task] = new ScalableBloomFilter(task == 3 ? "heap" : "direct", ScalableBloomFilter.Rate.MEDIUM, 0.5F, 10_000, 0.001, task == 3 ? ScalableBloomFilter.Storage.HEAP : ScalableBloomFilter.Storage.DIRECT);
+
+            int count = task == 3 ? 60_000 : 15_000;
+            for (long i = 0; i < count; i++) {
+                single.put(task * 100_000 + i);
+                tasks[task].put(task * 100_000 + i);
+            }
+        }
+
+        // overlap with the last task
+        for (long i = 300_000; i < 310_000; i++) {
+            tasks[0].put(i);
+        }
+
+        // tree style, the first merged into a filter with fewer layers
+        tasks[0].merge(tasks[1]);
+        tasks[2].merge(tasks[3]);
+        tasks[0].merge(tasks[2]);
+
+        ScalableBloomFilter merged = tasks[0];
+
+        assertTrue(merged.size() >= tasks[3].size());
+        // keys held by both may be counted twice
+        assertTrue("insert count: " + merged.getInsertCount(), merged.getInsertCount() >= single.getInsertCount() * 0.98);
+        assertTrue("insert count: " + merged.getInsertCount(), merged.getInsertCount() <= single.getInsertCount() + 10_000);
+
+        for (int task = 0; task < tasks.length; task++) {
+            int count = task == 3 ? 60_000 : 15_000;
+            for (long i = 0; i < count; i++) {
+                assertTrue(merged.mightContain(task * 100_000 + i));
+            }
+        }
+
+        double compoundedFpp = 0;
+        for (double fpp : merged.expectedFpp()) {
+            compoundedFpp += fpp;
+
+            // a head may pass its target by a little before the sampled scaling test catches it
+            assertTrue("layer fpp: " + fpp, fpp <= 0.0011);
+        }
+
+        int falsePositives = 0;
+        for (long i = 1_000_000; i < 1_100_000; i++) {
+            falsePositives += merged.mightContain(i) ? 1 : 0;
+        }
+
+        // full layers are copied rather than OR-ed, so each adds its own false positives
+        assertTrue("too many false positives: " + falsePositives, falsePositives < 100_000 * compoundedFpp * 1.2);
+
+        for (ScalableBloomFilter filter : tasks) {
+            filter.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergeIncompatible() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+
+        filter.merge(new ScalableBloomFilter(ScalableBloomFilter.Rate.FAST, 10_000, 0.001));
+    }
+}
@@ -0,0 +1,48 @@
+public class ScalableBloomFilterPreallocateTest {
+    @Test
+    public void preallocated() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AtomicInteger allocations = new AtomicInteger();
+
+        try (ScalableBloomFilter preallocated = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+             ScalableBloomFilter expected = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001)) {
+            preallocated.setPreallocator(command -> {
+                allocations.incrementAndGet();
+                executor.execute(command);
+            });
+
+            for (long i = 0; i < 200_000; i++) {
+                assertEquals(expected.put(i), preallocated.put(i));
+            }
+
+            // the same layers, each allocated ahead of need
+            assertTrue("filter did not scale", preallocated.size() > 1);
+            assertEquals(expected.size(), preallocated.size());
+            assertEquals(expected.getInsertCount(), preallocated.getInsertCount());
+            assertArrayEquals(expected.expectedFpp(), preallocated.expectedFpp(), 0.0);
+            assertTrue(allocations.get() >= preallocated.size() - 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void failedAllocation() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+
+        // every background allocation fails, so each layer is allocated in the put instead
+        filter.setPreallocator(command -> {
+            throw new RejectedExecutionException("rejected");
+        });
+
+        for (long i = 0; i < 100_000; i++) {
+            filter.put(i);
+        }
+
+        assertTrue("filter did not scale", filter.size() > 1);
+
+        for (long i = 0; i < 100_000; i++) {
+            assertTrue(filter.mightContain(i));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+public class ScalableBloomFilterStatsTest {
+    @Test
+    public void stats() {
+        ScalableBloomFilter filter = new ScalableBloomFilter("stats", ScalableBloomFilter.Rate.MEDIUM, 0.5F, 10_000, 0.001, ScalableBloomFilter.Storage.HEAP);
+
+        for (long i = 0; i < 50_000; i++) {
+            filter.put(i);
+        }
+
+        filter.mightContainAll(new long[]{1, 2, 3});
+
+        BloomFilterStats stats = filter.stats();
+
+        assertEquals(filter.size(), stats.getLayerCount());
+        assertEquals(filter.getInsertCount(), stats.getInsertCount());
+        assertEquals(50_000, stats.getPutCount());
+        assertEquals(3, stats.getLookupCount());
+        assertEquals(0, stats.getPutNanos());
+        assertArrayEquals(filter.expectedFpp(), IntStream.range(0, stats.getLayerCount()).mapToDouble(stats::getLayerFpp).toArray(), 0.0);
+
+        // the oldest layer was sized for the initial capacity
+        assertEquals(10_000, stats.getLayerCapacity(stats.getLayerCount() - 1), 10_000 * 0.1);
+        assertEquals(0.5, stats.getLayerFillRatio(stats.getLayerCount() - 1), 0.01);
+
+        long bytes = 0;
+        for (int i = 0; i < stats.getLayerCount(); i++) {
+            bytes += stats.getLayerBitSize(i) / Byte.SIZE;
+        }
+
+        assertEquals(bytes, stats.getMemoryBytes());
+        assertTrue(stats.getCompoundedFpp() < 0.002);
+    }
+
+    @Test
+    public void metrics() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(ScalableBloomFilter.Rate.MEDIUM, 10_000, 0.001);
+        long[] counts = new long[2];
+        List<BloomFilterStats> scaled = new ArrayList<>();
+
+        filter.setMetrics(new BloomFilterMetrics() {
+            @Override
+            public void onPut(int count, long nanos) {
+                counts[0] += count;
+            }
+
+            @Override
+            public void onLookup(int count, long nanos) {
+                counts[1] += count;
+            }
+
+            @Override
+            public void onScale(BloomFilterStats stats) {
+                scaled.add(stats);
+            }
+        });
+
+        for (long i = 0; i < 50_000; i++) {
+            filter.put(i);
+            filter.mightContain((int) i);
+        }
+
+        filter.putAll(new long[]{1, 2, 3});
+
+        assertEquals(50_003, counts[0]);
+        assertEquals(50_000, counts[1]);
+        assertEquals(filter.size() - 1, scaled.size());
+        assertEquals(filter.size(), scaled.get(scaled.size() - 1).getLayerCount());
+
+        BloomFilterStats stats = filter.stats();
+
+        assertEquals(50_003, stats.getPutCount());
+        assertTrue(stats.getPutNanos() > 0);
+        assertTrue(stats.getLookupNanos() > 0);
+    }
+}
@@ -0,0 +1,99 @@
+public class ScalableBloomFilterStorageTest {
+    private static ByteBuffer key(long value) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(0, value);
+    }
+
+    @Test
+    public void directMatchesHeap() {
+        try (ScalableBloomFilter heap = new ScalableBloomFilter("heap", ScalableBloomFilter.Rate.MEDIUM, 0.5F, 10_000, 0.001, ScalableBloomFilter.Storage.HEAP);
+             ScalableBloomFilter direct = new ScalableBloomFilter("direct", ScalableBloomFilter.Rate.MEDIUM, 0.5F, 10_000, 0.001, ScalableBloomFilter.Storage.DIRECT)) {
+
+            for (long i = 0; i < 100_000; i++) {
+                assertEquals(heap.put(key(i)), direct.put(key(i)));
+            }
+
+            assertEquals(heap.size(), direct.size());
+            assertEquals(heap.getInsertCount(), direct.getInsertCount());
+            assertArrayEquals(heap.expectedFpp(), direct.expectedFpp(), 0.0);
+
+            for (long i = 0; i < 200_000; i++) {
+                assertEquals(heap.mightContain(key(i)), direct.mightContain(key(i)));
+            }
+        }
+    }
+
+    @Test
+    public void directSegments() {
+        // 1KB segments, so the bits span three segments with a short last one
+        try (ByteBufferBitArray bits = ByteBufferBitArray.allocateDirect(2 * 1024 * Byte.SIZE + Long.SIZE, 10)) {
+            assertEquals(2 * 1024 * Byte.SIZE + Long.SIZE, bits.bitSize());
+
+            for (long i = 0; i < bits.bitSize(); i += 7) {
+                assertTrue(bits.set(i));
+            }
+
+            for (long i = 0; i < bits.bitSize(); i++) {
+                assertEquals(i % 7 == 0, bits.get(i));
+            }
+
+            assertFalse(bits.set(bits.bitSize() - 1 - (bits.bitSize() - 1) % 7));
+            assertEquals((bits.bitSize() + 6) / 7, bits.bitCount());
+        }
+    }
+
+    @Test
+    public void writeAndOpenHeap() throws IOException {
+        writeAndOpen(ScalableBloomFilter.Storage.HEAP, ScalableBloomFilter.Layout.STANDARD);
+    }
+
+    @Test
+    public void writeAndOpenDirect() throws IOException {
+        writeAndOpen(ScalableBloomFilter.Storage.DIRECT, ScalableBloomFilter.Layout.STANDARD);
+    }
+
+    @Test
+    public void writeAndOpenBlocked() throws IOException {
+        writeAndOpen(ScalableBloomFilter.Storage.HEAP, ScalableBloomFilter.Layout.BLOCKED);
+    }
+
+    private void writeAndOpen(ScalableBloomFilter.Storage storage, ScalableBloomFilter.Layout layout) throws IOException {
+        Path path = Files.createTempFile("bloom", ".sbf");
+        long written;
+
+        try {
+            try (ScalableBloomFilter filter = new ScalableBloomFilter("written", ScalableBloomFilter.Rate.MEDIUM, 0.5F, 10_000, 0.001, storage, layout)) {
+                for (long i = 0; i < 50_000; i++) {
+                    filter.put(key(i));
+                }
+
+                filter.writeTo(path);
+                written = filter.getInsertCount();
+
+                try (ScalableBloomFilter opened = ScalableBloomFilter.open(path, storage)) {
+                    assertEquals(filter.size(), opened.size());
+                    assertEquals(filter.getInsertCount(), opened.getInsertCount());
+                    assertArrayEquals(filter.expectedFpp(), opened.expectedFpp(), 0.0);
+                    assertEquals(filter.toString(), opened.toString());
+
+                    for (long i = 0; i < 100_000; i++) {
+                        assertEquals(filter.mightContain(key(i)), opened.mightContain(key(i)));
+                    }
+
+                    // inserts go to the private mapping, and may scale past the written layers
+                    for (long i = 50_000; i < 200_000; i++) {
+                        opened.put(key(i));
+                    }
+
+                    assertTrue(opened.size() > filter.size());
+                }
+            }
+
+            try (ScalableBloomFilter reopened = ScalableBloomFilter.open(path)) {
+                assertEquals(written, reopened.getInsertCount());
+                assertTrue(reopened.mightContain(key(0)));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+public class ShardedBloomFilterTest {
+    static final int THREADS = 8;
+    static final int KEYS_PER_THREAD = 50_000;
+
+    @Test
+    public void concurrentPut() throws Exception {
+        try (ShardedBloomFilter filter = new ShardedBloomFilter(16, ScalableBloomFilter.Rate.MEDIUM, 0.5F, 40_000, 0.001)) {
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+            try {
+                List<Future<Integer>> futures = new ArrayList<>();
+
+                for (int t = 0; t < THREADS; t++) {
+                    long start = (long) t * KEYS_PER_THREAD;
+                    futures.add(executor.submit(() -> {
+                        int duplicates = 0;
+                        for (long i = start; i < start + KEYS_PER_THREAD; i++) {
+                            duplicates += filter.put(i) ? 1 : 0;
+                        }
+                        return duplicates;
+                    }));
+                }
+
+                int duplicates = 0;
+                for (Future<Integer> future : futures) {
+                    duplicates += future.get();
+                }
+
+                assertEquals(THREADS * KEYS_PER_THREAD, filter.getInsertCount() + duplicates);
+            } finally {
+                executor.shutdownNow();
+            }
+
+            // keys spread evenly, so every shard scaled
+            for (int layers : filter.size()) {
+                assertTrue("shard did not scale", layers > 1);
+            }
+
+            for (long i = 0; i < THREADS * KEYS_PER_THREAD; i++) {
+                assertTrue(filter.mightContain(i));
+            }
+        }
+    }
+
+    @Test
+    public void putAll() {
+        try (ShardedBloomFilter filter = new ShardedBloomFilter(4, ScalableBloomFilter.Rate.MEDIUM, 0.5F, 10_000, 0.001)) {
+            // the second half of the batch repeats the first, which must be reported as duplicates
+            long[] keys = new long[100_000];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = i % 50_000;
+            }
+
+            long[] result = filter.putAll(keys);
+            int duplicates = 0;
+
+            for (int i = 0; i < keys.length; i++) {
+                boolean contained = (result[i >>> 6] & (1L << i)) != 0;
+
+                if (i >= 50_000) {
+                    assertTrue(contained);
+                }
+
+                duplicates += contained ? 1 : 0;
+                assertTrue(filter.mightContain(keys[i]));
+            }
+
+            assertEquals(keys.length, filter.getInsertCount() + duplicates);
+            // scaling is sampled, so only false positives among the first half may vary
+            assertEquals(50_000, duplicates, 50_000 * 0.002);
+
+            ByteBuffer[] tuples = new ByteBuffer[1_000];
+            for (int i = 0; i < tuples.length; i++) {
+                tuples[i] = ByteBuffer.allocate(Long.BYTES).putLong(0, 1_000_000 + i);
+            }
+
+            filter.putAll(tuples);
+
+            for (ByteBuffer tuple : tuples) {
+                assertTrue(filter.mightContain(tuple));
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+public class SpillableLongSetTest {
+    @Test
+    public void spills() throws IOException {
+        Path directory = Files.createTempDirectory("spill");
+        Set<Long> expected = new HashSet<>();
+
+        try {
+            try (SpillableLongSet set = new SpillableLongSet(1_000, directory)) {
+                Random random = new Random(1);
+
+                for (int i = 0; i < 50_000; i++) {
+                    // a narrow range so values repeat, including zero
+                    long value = random.nextInt(40_000) - 20_000;
+
+                    assertEquals(expected.add(value), set.add(value));
+                }
+
+                assertEquals(expected.size(), set.size());
+                assertTrue(set.runCount() > 0);
+                assertTrue(set.runCount() <= SpillableLongSet.MAX_RUNS);
+
+                for (long value = -25_000; value < 25_000; value++) {
+                    assertEquals(expected.contains(value), set.contains(value));
+                }
+            }
+
+            // run files are deleted on close
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(0, files.count());
+            }
+        } finally {
+            Files.deleteIfExists(directory);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+public class StableBloomFilterTest {
+    @Test
+    public void convergesToSteadyState() {
+        double fpp = 0.01;
+        StableBloomFilter filter = new StableBloomFilter("test", 100_000, 2, 3, fpp);
+
+        assertEquals(fpp, filter.steadyStateFpp(), fpp * 0.1);
+
+        // many times more keys than cells, a scalable filter would keep growing
+        Random random = new Random(1);
+        for (int i = 0; i < 2_000_000; i++) {
+            filter.put(random.nextLong());
+        }
+
+        assertEquals(filter.steadyStateFpp(), filter.expectedFpp(), fpp * 0.2);
+
+        int falsePositives = 0;
+        int trials = 200_000;
+        for (int i = 0; i < trials; i++) {
+            falsePositives += filter.mightContain(random.nextLong()) ? 1 : 0;
+        }
+
+        assertEquals(fpp, (double) falsePositives / trials, fpp * 0.2);
+    }
+
+    @Test
+    public void recentKeysRetained() {
+        StableBloomFilter filter = new StableBloomFilter(100_000, 4, 3, 0.01);
+
+        for (long i = 0; i < 1_000_000; i++) {
+            filter.put(i);
+        }
+
+        // the newest keys have had little time to decay
+        int missing = 0;
+        for (long i = 999_000; i < 1_000_000; i++) {
+            missing += filter.mightContain(i) ? 0 : 1;
+        }
+
+        assertTrue("recent keys missing: " + missing, missing <= 10);
+        assertTrue(filter.put(999_999L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cellBitsMustPack() {
+        new StableBloomFilter(1_000, 3, 3, 0.01);
+    }
+}
@@ -0,0 +1,113 @@
+public class WindowedBloomFilterTest {
+    @Test
+    public void expires() {
+        // Tuesday, May 4, 2021 4:59:30.871 PM
+        TestClock clock = new TestClock(1620147570871L);
+        WindowedBloomFilter filter = new WindowedBloomFilter("window", clock, DurationUnit.SIXTHS, 6, ScalableBloomFilter.Rate.MEDIUM, 0.5F, 10_000, 0.001, ScalableBloomFilter.Storage.HEAP);
+
+        assertEquals(Duration.ofHours(1), filter.getWindow());
+
+        for (long i = 0; i < 10_000; i++) {
+            filter.put(i);
+        }
+
+        assertTrue(filter.put(1));
+
+        // still within the window after fifty minutes
+        clock.advance(Duration.ofMinutes(50));
+
+        for (long i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain(i));
+        }
+
+        for (long i = 10_000; i < 20_000; i++) {
+            filter.put(i);
+        }
+
+        assertEquals(2, filter.size());
+
+        // the first bucket has expired, no false positives remain from it
+        clock.advance(Duration.ofMinutes(20));
+
+        assertEquals(1, filter.size());
+
+        int contained = 0;
+        for (long i = 0; i < 10_000; i++) {
+            if (filter.mightContain(i)) {
+                contained++;
+            }
+        }
+
+        assertTrue(contained < 10_000 * 0.01);
+
+        for (long i = 10_000; i < 20_000; i++) {
+            assertTrue(filter.mightContain(i));
+        }
+
+        // idle past the whole window
+        clock.advance(Duration.ofDays(1));
+
+        assertEquals(0, filter.size());
+        assertFalse(filter.mightContain(10_000));
+    }
+
+    @Test
+    public void refreshed() {
+        TestClock clock = new TestClock(0);
+        WindowedBloomFilter filter = new WindowedBloomFilter("window", clock, ChronoUnit.HOURS, 2, ScalableBloomFilter.Rate.MEDIUM, 0.5F, 1_000, 0.001, ScalableBloomFilter.Storage.HEAP);
+
+        filter.put(42);
+        clock.advance(Duration.ofHours(1));
+
+        // seen again, so lives on in the current bucket
+        assertTrue(filter.put(42));
+        clock.advance(Duration.ofHours(1));
+
+        assertTrue(filter.mightContain(42));
+        clock.advance(Duration.ofHours(1));
+
+        assertFalse(filter.mightContain(42));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void estimatedUnit() {
+        new WindowedBloomFilter(ChronoUnit.MONTHS, 3, ScalableBloomFilter.Rate.MEDIUM, 1_000, 0.001);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void subMillisecondUnit() {
+        new WindowedBloomFilter(ChronoUnit.MICROS, 3, ScalableBloomFilter.Rate.MEDIUM, 1_000, 0.001);
+    }
+
+    private static class TestClock extends Clock {
+        private long millis;
+
+        TestClock(long millis) {
+            this.millis = millis;
+        }
+
+        void advance(Duration duration) {
+            millis += duration.toMillis();
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+public class Murmur3Test {
+    @Test
+    public void matchesGuava() {
+        long[] keys = LongStream.concat(LongStream.of(0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE), new Random(1).longs(10_000)).toArray();
+
+        for (long key : keys) {
+            byte[] bytes = Hashing.murmur3_128().hashLong(key).asBytes();
+
+            assertEquals(Longs.fromBytes(bytes[7], bytes[6], bytes[5], bytes[4], bytes[3], bytes[2], bytes[1], bytes[0]), Murmur3.hash1(key));
+            assertEquals(Longs.fromBytes(bytes[15], bytes[14], bytes[13], bytes[12], bytes[11], bytes[10], bytes[9], bytes[8]), Murmur3.hash2(key));
+        }
+    }
+
+    @Test
+    public void bufferMatchesGuava() {
+        Random random = new Random(1);
+        long[] result = new long[2];
+
+        for (int length = 0; length < 100; length++) {
+            byte[] input = new byte[length];
+            random.nextBytes(input);
+
+            byte[] bytes = Hashing.murmur3_128().hashBytes(input).asBytes();
+            long hash1 = Longs.fromBytes(bytes[7], bytes[6], bytes[5], bytes[4], bytes[3], bytes[2], bytes[1], bytes[0]);
+            long hash2 = Longs.fromBytes(bytes[15], bytes[14], bytes[13], bytes[12], bytes[11], bytes[10], bytes[9], bytes[8]);
+
+            for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                ByteBuffer buffer = ByteBuffer.wrap(input).order(order);
+                buffer.position(length / 2);
+
+                Murmur3.hash128(buffer, result, 0);
+
+                assertEquals(hash1, result[0]);
+                assertEquals(hash2, result[1]);
+                assertEquals(length / 2, buffer.position());
+
+                ByteBuffer direct = ByteBuffer.allocateDirect(length).order(order).put(input);
+
+                Murmur3.hash128(direct, result, 0);
+
+                assertEquals(hash1, result[0]);
+                assertEquals(hash2, result[1]);
+            }
+        }
+    }
+
+    @Test
+    public void sixteenBytesMatchesBuffer() {
+        Random random = new Random(1);
+        long[] expected = new long[2];
+        long[] result = new long[2];
+
+        for (int i = 0; i < 10_000; i++) {
+            UUID uuid = new UUID(random.nextLong(), random.nextLong());
+
+            Murmur3.hash128(ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()), expected, 0);
+            Murmur3.hash128(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), result, 0);
+
+            assertArrayEquals(expected, result);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+public class IDLayoutTest {
+    @Test
+    public void defaults() {
+        IDLayout layout = IDLayout.DEFAULT;
+
+        assertEquals(7, layout.getSequenceBits());
+        assertEquals(22, layout.getTaskIdBits());
+        assertEquals(35, layout.getTimeBits());
+        assertEquals(SerialTaskIDGenerator.EPOCH, layout.getEpoch());
+        assertEquals(127, layout.getSequenceMask());
+
+        System.out.println(layout.printStats());
+    }
+
+    @Test
+    public void invalid() {
+        assertInvalid(IDLayout.builder().sequenceBits(0));
+        assertInvalid(IDLayout.builder().sequenceBits(IDLayout.MAX_SEQUENCE_BITS + 1).taskIdBits(0));
+        assertInvalid(IDLayout.builder().taskIdBits(-1));
+        assertInvalid(IDLayout.builder().sequenceBits(20).taskIdBits(44));
+        assertInvalid(IDLayout.builder().timeBits(36));
+        assertInvalid(IDLayout.builder().epoch(-1));
+    }
+
+    @Test
+    public void custom() {
+        long epoch = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+        IDLayout layout = IDLayout.builder()
+                .sequenceBits(12)
+                .taskIdBits(10)
+                .timeBits(41)
+                .epoch(epoch)
+                .build();
+
+        SerialTaskIDGenerator generator = new SerialTaskIDGenerator(layout, 5_000);
+
+        assertEquals(4095, generator.getSequenceMask());
+        assertEquals(5_000 & 1023, generator.getTaskId());
+
+        long last = generator.nextLong();
+        for (int i = 0; i < 100_000; i++) {
+            long next = generator.nextLong();
+            assertTrue(next > last);
+            last = next;
+        }
+
+        // 41 time bits leave the sign bit clear
+        assertTrue(last > 0);
+        assertTrue(layout.timestampOf(last) <= System.currentTimeMillis());
+        assertEquals(5_000 & 1023, layout.taskIdOf(last));
+        assertTrue(layout.minIdFor(layout.timestampOf(last)) <= last);
+        assertTrue(layout.maxIdFor(layout.timestampOf(last)) >= last);
+    }
+
+    @Test
+    public void wraps() {
+        // a 20 bit time range, about 17 minutes, used up long ago
+        IDLayout layout = IDLayout.builder().timeBits(20).build();
+        SerialTaskIDGenerator generator = new SerialTaskIDGenerator(layout, 1);
+
+        long before = System.currentTimeMillis();
+
+        for (int i = 0; i < 1_000; i++) {
+            long id = generator.nextLong();
+            assertTrue(id > 0);
+            assertEquals(0, id >>> layout.getTimestampLeftShift() + layout.getTimeBits());
+
+            long timestamp = layout.timestampOf(id);
+            assertTrue(timestamp >= before);
+            assertTrue(timestamp <= System.currentTimeMillis());
+        }
+
+        // a full time range earlier has the same time bits
+        long id = generator.nextLong();
+        long now = System.currentTimeMillis();
+        assertEquals(layout.timestampOf(id, now) - layout.getTimeMask() - 1, layout.timestampOf(id, now - layout.getTimeMask() - 1));
+        assertEquals(layout.minIdFor(now), layout.minIdFor(now - layout.getTimeMask() - 1));
+    }
+
+    @Test
+    public void wideSequence() {
+        long start = System.currentTimeMillis();
+        IDLayout[] layouts = {
+                IDLayout.builder().sequenceBits(22).taskIdBits(0).epoch(0).build(),
+                IDLayout.builder().sequenceBits(22).taskIdBits(0).timeBits(20).build()
+        };
+
+        for (IDLayout layout : layouts) {
+            SerialTaskIDGenerator generator = new SerialTaskIDGenerator(layout, 0);
+            Set<Long> unique = new HashSet<>();
+
+            for (int i = 0; i < 100_000; i++) {
+                assertTrue(layout.toString(), unique.add(generator.nextLong()));
+            }
+        }
+
+        // not wrapped, so the full timestamp decodes
+        long id = new SerialTaskIDGenerator(layouts[0], 0).nextLong();
+        assertTrue(layouts[0].timestampOf(id) >= start);
+        assertTrue(layouts[0].timestampOf(id) <= System.currentTimeMillis());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void beforeEpoch() {
+        IDLayout layout = IDLayout.builder().epoch(System.currentTimeMillis() + 60_000).build();
+
+        new SerialTaskIDGenerator(layout, 1).nextLong();
+    }
+
+    private void assertInvalid(IDLayout.Builder builder) {
+        try {
+            builder.build();
+            fail("expected invalid layout: " + builder);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -17,6 +17,167 @@ public class SerialTaskIDGeneratorTest {
 //        results.stream().skip(maxValue-100).map(Long::toHexString).peek(System.out::println).count();
     }
 
+    @Test
+    public void concurrent() throws InterruptedException {
+        SerialTaskIDGenerator generator = new SerialTaskIDGenerator(123);
+        int threads = 4;
+        int count = 250_000;
+        long[][] results = new long[threads][count];
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            long[] result = results[t];
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    result[i] = generator.next();
+                }
+            }));
+        }
+
+        workers.forEach(Thread::start);
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Set<Long> unique = new HashSet<>();
+        for (long[] result : results) {
+            for (int i = 0; i < count; i++) {
+                assertTrue(unique.add(result[i]));
+
+                // each thread sees its ids increase
+                if (i > 0) {
+                    assertTrue(result[i] > result[i - 1]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bulk() {
+        SerialTaskIDGenerator generator = new SerialTaskIDGenerator(123);
+        long[] ids = new long[1_010];
+
+        // spans several milliseconds
+        generator.next(ids, 10, 1_000);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, ids[i]);
+        }
+
+        for (int i = 11; i < ids.length; i++) {
+            assertTrue(ids[i] > ids[i - 1]);
+            assertEquals(123, ids[i] & generator.getTaskMask());
+        }
+
+        assertTrue(generator.nextLong() > ids[ids.length - 1]);
+    }
+
+    @Test
+    public void rolloverPolicies() {
+        for (SerialTaskIDGenerator.RolloverPolicy policy : SerialTaskIDGenerator.RolloverPolicy.values()) {
+            SerialTaskIDGenerator generator = new SerialTaskIDGenerator(123);
+            generator.setRolloverPolicy(policy, 2);
+
+            long last = generator.nextLong();
+            for (int i = 0; i < 10_000; i++) {
+                long next = generator.nextLong();
+                assertTrue(policy.toString(), next > last);
+                last = next;
+            }
+        }
+    }
+
+    @Test
+    public void borrow() {
+        TestClock clock = new TestClock(SerialTaskIDGenerator.EPOCH + 1_000);
+        SerialTaskIDGenerator generator = new SerialTaskIDGenerator(clock, 123);
+        generator.setRolloverPolicy(SerialTaskIDGenerator.RolloverPolicy.BORROW, 2);
+
+        int perMillis = (int) generator.getSequenceMask() + 1;
+        long[] ids = new long[3 * perMillis];
+
+        // the clock never moves, so would wait forever without borrowing
+        generator.next(ids, 0, ids.length);
+
+        for (int i = 1; i < ids.length; i++) {
+            assertTrue(ids[i] > ids[i - 1]);
+        }
+
+        long timestampShift = generator.getSequenceBits() + generator.getTaskIdBits();
+        assertEquals(1_002, ids[ids.length - 1] >>> timestampShift);
+
+        // still behind the borrowed timestamp, but within the borrow, so held rather than failed
+        clock.millis += 1;
+        assertTrue(generator.nextLong() > ids[ids.length - 1]);
+        assertEquals(0, generator.getRegressionCount());
+    }
+
+    @Test
+    public void clockRegression() {
+        TestClock clock = new TestClock(SerialTaskIDGenerator.EPOCH + 1_000);
+        SerialTaskIDGenerator generator = new SerialTaskIDGenerator(clock, 123);
+
+        long last = generator.nextLong();
+
+        clock.millis -= 5;
+
+        try {
+            generator.nextLong();
+            fail("expected clock regression failure");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        generator.setClockRegressionPolicy(SerialTaskIDGenerator.ClockRegressionPolicy.HOLD);
+
+        for (int i = 0; i < 10; i++) {
+            long next = generator.nextLong();
+            assertTrue(next > last);
+            last = next;
+        }
+
+        assertEquals(10, generator.getRegressionCount());
+
+        clock.millis += 10;
+        assertTrue(generator.nextLong() > last);
+    }
+
+    @Test
+    public void decode() {
+        TestClock clock = new TestClock(SerialTaskIDGenerator.EPOCH + 1_000);
+        SerialTaskIDGenerator generator = new SerialTaskIDGenerator(clock, 123);
+
+        generator.nextLong();
+        long id = generator.nextLong();
+
+        assertEquals(clock.millis(), SerialTaskIDGenerator.timestampOf(id, clock.millis()));
+        assertEquals(1, SerialTaskIDGenerator.sequenceOf(id));
+        assertEquals(123, SerialTaskIDGenerator.taskIdOf(id));
+
+        Instant instant = clock.instant();
+        assertTrue(SerialTaskIDGenerator.minIdFor(instant) < id);
+        assertTrue(SerialTaskIDGenerator.maxIdFor(instant) > id);
+        assertTrue(SerialTaskIDGenerator.maxIdFor(instant.minusMillis(1)) < id);
+        assertTrue(SerialTaskIDGenerator.minIdFor(instant.plusMillis(1)) > id);
+    }
+
+    @Test
+    public void decodeSystemClock() {
+        // the default time range has wrapped since the epoch, so the time is unwrapped against the clock
+        long before = System.currentTimeMillis();
+        long id = new SerialTaskIDGenerator(123).nextLong();
+        long after = System.currentTimeMillis();
+
+        long timestamp = SerialTaskIDGenerator.timestampOf(id);
+        assertTrue(timestamp >= before);
+        assertTrue(timestamp <= after);
+        assertEquals(123, SerialTaskIDGenerator.taskIdOf(id));
+
+        assertTrue(Long.compareUnsigned(SerialTaskIDGenerator.minIdFor(Instant.ofEpochMilli(timestamp)), id) <= 0);
+        assertTrue(Long.compareUnsigned(SerialTaskIDGenerator.maxIdFor(Instant.ofEpochMilli(timestamp)), id) >= 0);
+    }
+
     private void sleep(int duration) {
         try {
             Thread.sleep(0, (int) TimeUnit.MILLISECONDS.toNanos(duration));
@@ -24,5 +185,32 @@ public class SerialTaskIDGeneratorTest {
             // do nothing
         }
     }
-    
+
+    private static class TestClock extends Clock {
+        private long millis;
+
+        TestClock(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
 }
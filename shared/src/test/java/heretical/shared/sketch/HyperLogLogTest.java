@@ -0,0 +1,87 @@
+public class HyperLogLogTest {
+    @Test
+    public void estimate() {
+        assertEquals(0, new HyperLogLog().estimate());
+
+        for (long count : new long[]{100, 10_000, 1_000_000}) {
+            HyperLogLog sketch = new HyperLogLog();
+
+            // duplicates are not counted
+            for (int pass = 0; pass < 2; pass++) {
+                for (long i = 0; i < count; i++) {
+                    sketch.add(i);
+                }
+            }
+
+            assertEquals(count, sketch.estimate(), count * 3 * sketch.relativeStandardError());
+        }
+    }
+
+    @Test
+    public void merge() {
+        HyperLogLog left = new HyperLogLog();
+        HyperLogLog right = new HyperLogLog();
+        HyperLogLog union = new HyperLogLog();
+
+        for (long i = 0; i < 300_000; i++) {
+            left.add(i);
+            union.add(i);
+        }
+
+        for (long i = 200_000; i < 500_000; i++) {
+            right.add(i);
+            union.add(i);
+        }
+
+        left.merge(right);
+
+        assertEquals(union.estimate(), left.estimate());
+        assertArrayEquals(union.toBytes(), left.toBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergeIncompatible() {
+        new HyperLogLog(12).merge(new HyperLogLog(14));
+    }
+
+    @Test
+    public void bytes() {
+        HyperLogLog sketch = new HyperLogLog(10);
+
+        for (int i = 0; i < 5_000; i++) {
+            sketch.add(ByteBuffer.wrap(("key" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        byte[] bytes = sketch.toBytes();
+        HyperLogLog read = HyperLogLog.fromBytes(bytes);
+
+        assertEquals(10, read.getPrecision());
+        assertEquals(sketch.estimate(), read.estimate());
+        assertArrayEquals(bytes, read.toBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bytesTruncated() {
+        byte[] bytes = new HyperLogLog(10).toBytes();
+
+        HyperLogLog.fromBytes(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test
+    public void sizedFor() {
+        HyperLogLog sketch = new HyperLogLog();
+
+        for (long i = 0; i < 200_000; i++) {
+            sketch.add(i);
+        }
+
+        ScalableBloomFilter filter = ScalableBloomFilter.sizedFor(sketch, ScalableBloomFilter.Rate.MEDIUM, 0.001);
+
+        for (long i = 0; i < 200_000; i++) {
+            filter.put(i);
+        }
+
+        // the whole batch fit in the first layer
+        assertEquals(1, filter.size());
+    }
+}